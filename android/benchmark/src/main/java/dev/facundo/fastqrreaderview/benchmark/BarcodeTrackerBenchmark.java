@@ -0,0 +1,70 @@
+package dev.facundo.fastqrreaderview.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.facundo.fastqrreaderview.java.barcodescanning.BarcodeTracker;
+
+/**
+ * Tracking a frame of codes drifting across the view. Run with {@code -prof gc} to check that it
+ * allocates nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class BarcodeTrackerBenchmark {
+
+    @Param({"1", "10"})
+    public int codes;
+
+    private BarcodeTracker tracker;
+    private String[] values;
+    private int frame;
+    private int events;
+
+    private final BarcodeTracker.Listener listener = new BarcodeTracker.Listener() {
+        @Override
+        public void onAppeared(int trackId, int index) {
+            events++;
+        }
+
+        @Override
+        public void onMoved(int trackId, int index) {
+            events++;
+        }
+
+        @Override
+        public void onDisappeared(int trackId) {
+            events++;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        tracker = new BarcodeTracker(16, 0.1f, 0.9f, 3);
+        values = new String[codes];
+        for (int i = 0; i < codes; i++) {
+            values[i] = "LABEL-000" + i;
+        }
+    }
+
+    @Benchmark
+    public int trackFrame() {
+        // Codes in a column, moving a pixel per frame and wrapping around.
+        int x = frame++ % 400;
+        tracker.beginFrame();
+        for (int i = 0; i < codes; i++) {
+            tracker.add(256, values[i], x, i * 40, x + 30, i * 40 + 30);
+        }
+        tracker.endFrame(listener);
+        return events;
+    }
+}
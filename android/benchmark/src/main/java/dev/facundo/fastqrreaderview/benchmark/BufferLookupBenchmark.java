@@ -0,0 +1,90 @@
+package dev.facundo.fastqrreaderview.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.concurrent.TimeUnit;
+
+import dev.facundo.fastqrreaderview.common.FrameLease;
+import dev.facundo.fastqrreaderview.common.FramePool;
+
+/**
+ * Finding the buffer the camera just filled: the old {@code IdentityHashMap} lookup against
+ * {@link FramePool}'s identity scan plus the lease's reference counting.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class BufferLookupBenchmark {
+
+    @Param({"4", "9"})
+    public int bufferCount;
+
+    private byte[][] buffers;
+    private IdentityHashMap<byte[], ByteBuffer> bytesToByteBuffer;
+    private FramePool pool;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // Small buffers; only their identity matters here. The pool's recycler collects its arrays
+        // so both lookups see the same ones, like the camera hands them back.
+        buffers = new byte[bufferCount][];
+        final int[] recycled = new int[1];
+        pool = new FramePool(bufferCount, 16, new FramePool.Recycler() {
+            @Override
+            public void recycle(byte[] data) {
+                if (recycled[0] < buffers.length) {
+                    buffers[recycled[0]++] = data;
+                }
+            }
+        });
+        pool.recycleAll();
+        bytesToByteBuffer = new IdentityHashMap<>();
+        for (byte[] buffer : buffers) {
+            bytesToByteBuffer.put(buffer, ByteBuffer.wrap(buffer));
+        }
+    }
+
+    private byte[] nextBuffer() {
+        byte[] buffer = buffers[next];
+        next = next + 1 == bufferCount ? 0 : next + 1;
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer identityHashMap() {
+        byte[] data = nextBuffer();
+        if (!bytesToByteBuffer.containsKey(data)) {
+            return null;
+        }
+        return bytesToByteBuffer.get(data);
+    }
+
+    @Benchmark
+    public ByteBuffer framePool() {
+        FrameLease lease = pool.acquire(nextBuffer());
+        ByteBuffer buffer = lease.getBuffer();
+        lease.release();
+        return buffer;
+    }
+
+    /** A lease retained and released once more, as when the processor detects in place. */
+    @Benchmark
+    public ByteBuffer framePoolRetained() {
+        FrameLease lease = pool.acquire(nextBuffer());
+        lease.retain();
+        ByteBuffer buffer = lease.getBuffer();
+        lease.release();
+        lease.release();
+        return buffer;
+    }
+}
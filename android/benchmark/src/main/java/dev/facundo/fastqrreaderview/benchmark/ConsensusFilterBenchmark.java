@@ -0,0 +1,46 @@
+package dev.facundo.fastqrreaderview.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import dev.facundo.fastqrreaderview.java.barcodescanning.ConsensusFilter;
+
+/** Voting on one frame's reads: a stable label plus an occasional misread. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ConsensusFilterBenchmark {
+
+    private ConsensusFilter filter;
+    private byte[] label;
+    private byte[][] misreads;
+    private int frame;
+
+    @Setup
+    public void setUp() {
+        filter = new ConsensusFilter(3, 5, 8);
+        label = "4006381333931".getBytes(StandardCharsets.UTF_8);
+        misreads = new byte[16][];
+        for (int i = 0; i < misreads.length; i++) {
+            misreads[i] = ("40063813339" + (10 + i)).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public boolean voteFrame() {
+        filter.beginFrame();
+        boolean confirmed = filter.vote(32, label);
+        if ((frame++ & 3) == 0) {
+            confirmed &= !filter.vote(32, misreads[frame & 15]);
+        }
+        return confirmed;
+    }
+}
@@ -0,0 +1,61 @@
+package dev.facundo.fastqrreaderview.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import dev.facundo.fastqrreaderview.common.ScanWindow;
+
+/** Ways of turning a camera buffer into the detector's input, per frame. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FrameBufferBenchmark {
+
+    private byte[] data;
+    private ByteBuffer buffer;
+    private byte[] crop;
+    private ScanWindow window;
+
+    @Setup
+    public void setUp() {
+        data = Frames.nv21(Frames.WIDTH, Frames.HEIGHT);
+        buffer = ByteBuffer.wrap(data);
+        window = new ScanWindow(0.25f, 0.25f, 0.75f, 0.75f);
+        window.computeCrop(Frames.WIDTH, Frames.HEIGHT, Frames.ROTATION);
+        crop = new byte[ScanWindow.nv21Size(window.getCropWidth(), window.getCropHeight())];
+    }
+
+    @Benchmark
+    public ByteBuffer wrap() {
+        return ByteBuffer.wrap(data);
+    }
+
+    /** What the processor used to do with every frame before handing it to ML Kit. */
+    @Benchmark
+    public ByteBuffer compact() {
+        buffer.clear();
+        return buffer.compact();
+    }
+
+    @Benchmark
+    public ByteBuffer duplicate() {
+        return buffer.duplicate();
+    }
+
+    @Benchmark
+    public byte[] cropNv21() {
+        window.computeCrop(Frames.WIDTH, Frames.HEIGHT, Frames.ROTATION);
+        ScanWindow.cropNv21(buffer, Frames.WIDTH, Frames.HEIGHT,
+                window.getCropLeft(), window.getCropTop(),
+                window.getCropWidth(), window.getCropHeight(), crop);
+        return crop;
+    }
+}
@@ -0,0 +1,52 @@
+package dev.facundo.fastqrreaderview.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.facundo.fastqrreaderview.common.FrameMetadata;
+
+/** Cost of the metadata built for every frame, see {@code FrameProcessingRunnable.run()}. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FrameMetadataBenchmark {
+
+    private FrameMetadata base;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        base = new FrameMetadata.Builder()
+                .setWidth(Frames.WIDTH)
+                .setHeight(Frames.HEIGHT)
+                .setRotation(Frames.ROTATION)
+                .build();
+    }
+
+    @Benchmark
+    public FrameMetadata build() {
+        now++;
+        return new FrameMetadata.Builder()
+                .setWidth(Frames.WIDTH)
+                .setHeight(Frames.HEIGHT)
+                .setRotation(Frames.ROTATION)
+                .setCaptureNanos(now)
+                .setDequeueNanos(now)
+                .build();
+    }
+
+    /** The extra copy made per frame when a scan window is set. */
+    @Benchmark
+    public FrameMetadata buildCropped() {
+        return new FrameMetadata.Builder(base)
+                .setCrop(160, 120, 320, 240)
+                .build();
+    }
+}
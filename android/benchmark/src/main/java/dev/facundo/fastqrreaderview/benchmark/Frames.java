@@ -0,0 +1,24 @@
+package dev.facundo.fastqrreaderview.benchmark;
+
+import java.util.Random;
+
+/** Synthetic camera frames for the benchmarks. */
+final class Frames {
+
+    static final int WIDTH = 640;
+    static final int HEIGHT = 480;
+    static final int ROTATION = 90;
+
+    private Frames() {
+    }
+
+    /**
+     * Returns an NV21 frame of noise, sized like the legacy camera's callback buffers (which carry
+     * one spare byte).
+     */
+    static byte[] nv21(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2 + 1];
+        new Random(42).nextBytes(frame);
+        return frame;
+    }
+}
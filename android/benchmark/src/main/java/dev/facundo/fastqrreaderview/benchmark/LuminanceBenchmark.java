@@ -0,0 +1,55 @@
+package dev.facundo.fastqrreaderview.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import dev.facundo.fastqrreaderview.common.AutoTorch;
+import dev.facundo.fastqrreaderview.common.LuminanceMeter;
+
+/** Per-frame brightness measurement for the auto torch, at common preview sizes. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class LuminanceBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String size;
+
+    private int width;
+    private int height;
+    private ByteBuffer frame;
+    private LuminanceMeter meter;
+    private AutoTorch autoTorch;
+    private long frameNanos;
+
+    @Setup
+    public void setUp() {
+        String[] parts = size.split("x");
+        width = Integer.parseInt(parts[0]);
+        height = Integer.parseInt(parts[1]);
+        frame = ByteBuffer.wrap(Frames.nv21(width, height));
+        meter = new LuminanceMeter(8);
+        autoTorch = new AutoTorch();
+    }
+
+    @Benchmark
+    public int meanAndPercentile() {
+        meter.measure(frame, width, height, width, 1);
+        return meter.getMean() + meter.getPercentile(90);
+    }
+
+    @Benchmark
+    public int autoTorch() {
+        frameNanos += 33_000_000L;
+        return autoTorch.onFrame(frame, width, height, width, 1, frameNanos);
+    }
+}
@@ -0,0 +1,96 @@
+package dev.facundo.fastqrreaderview.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import dev.facundo.fastqrreaderview.common.FrameMetadata;
+import dev.facundo.fastqrreaderview.common.LatencyHistogram;
+import dev.facundo.fastqrreaderview.common.PipelineMetrics;
+import dev.facundo.fastqrreaderview.java.barcodescanning.BarcodeResultEncoder;
+
+/** Building the maps sent over the platform channels, and recording into the metrics. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ResultSerializationBenchmark {
+
+    private static final String RAW_VALUE = "https://github.com/facundomedica/fast_qr_reader_view";
+
+    private FrameMetadata metadata;
+    private int[] corners;
+    private byte[] rawBytes;
+    private PipelineMetrics metrics;
+    private LatencyHistogram histogram;
+    private long sample;
+
+    @Setup
+    public void setUp() {
+        metadata = new FrameMetadata.Builder()
+                .setWidth(Frames.WIDTH)
+                .setHeight(Frames.HEIGHT)
+                .setRotation(Frames.ROTATION)
+                .setCrop(160, 120, 320, 240)
+                .build();
+        corners = new int[]{40, 40, 200, 42, 198, 201, 38, 199};
+        rawBytes = RAW_VALUE.getBytes(StandardCharsets.UTF_8);
+        metrics = new PipelineMetrics();
+        for (int i = 0; i < 10_000; i++) {
+            metrics.record(PipelineMetrics.Stage.DETECT, 1, 1 + i * 3_000L);
+        }
+        histogram = new LatencyHistogram();
+    }
+
+    /** A barcode as a map of boxed values, the way results are handed to the method channel. */
+    @Benchmark
+    public Map<String, Object> barcodeToMap() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("format", 256);
+        result.put("rawValue", RAW_VALUE);
+        List<Map<String, Object>> points = new ArrayList<>(corners.length / 2);
+        for (int i = 0; i < corners.length; i += 2) {
+            Map<String, Object> point = new HashMap<>();
+            point.put("x", metadata.toFrameX(corners[i]));
+            point.put("y", metadata.toFrameY(corners[i + 1]));
+            points.add(point);
+        }
+        result.put("corners", points);
+        return result;
+    }
+
+    /** The same barcode as a single {@link BarcodeResultEncoder} payload. */
+    @Benchmark
+    public byte[] barcodeToBinary() {
+        int[] mapped = new int[corners.length];
+        for (int i = 0; i < corners.length; i += 2) {
+            mapped[i] = metadata.toFrameX(corners[i]);
+            mapped[i + 1] = metadata.toFrameY(corners[i + 1]);
+        }
+        return BarcodeResultEncoder.encode(256, 8, metadata.getCaptureNanos(),
+                mapped[0], mapped[1], mapped[4], mapped[5],
+                mapped, rawBytes, RAW_VALUE);
+    }
+
+    @Benchmark
+    public Map<String, Object> metricsToMap() {
+        return metrics.toMap();
+    }
+
+    @Benchmark
+    public LatencyHistogram recordLatency() {
+        sample += 7_919;
+        histogram.record(sample % 500_000_000L);
+        return histogram;
+    }
+}
@@ -7,19 +7,22 @@ import android.app.Application;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.graphics.ImageFormat;
-import android.graphics.SurfaceTexture;
+import android.graphics.Point;
+import android.graphics.Rect;
 import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
-import android.hardware.camera2.params.StreamConfigurationMap;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.util.Size;
+import android.util.SparseArray;
 import android.util.SparseIntArray;
 import android.view.Surface;
 
@@ -38,11 +41,30 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import dev.facundo.fastqrreaderview.common.AutoTorch;
+import dev.facundo.fastqrreaderview.common.Camera2Source;
+import dev.facundo.fastqrreaderview.common.CameraCapabilityCache;
 import dev.facundo.fastqrreaderview.common.CameraSource;
 import dev.facundo.fastqrreaderview.common.CameraSourcePreview;
+import dev.facundo.fastqrreaderview.common.FocusController;
+import dev.facundo.fastqrreaderview.common.FrameMetadata;
+import dev.facundo.fastqrreaderview.common.FrameRateGovernor;
+import dev.facundo.fastqrreaderview.common.PipelineMetrics;
+import dev.facundo.fastqrreaderview.common.ScanWindow;
+import dev.facundo.fastqrreaderview.common.ZoomController;
+import dev.facundo.fastqrreaderview.java.barcodescanning.BarcodeResultEncoder;
 import dev.facundo.fastqrreaderview.java.barcodescanning.BarcodeScanningProcessor;
+import dev.facundo.fastqrreaderview.java.barcodescanning.BarcodeTracker;
+import dev.facundo.fastqrreaderview.java.barcodescanning.ConsensusFilter;
+import dev.facundo.fastqrreaderview.java.barcodescanning.ImageBatchScanner;
 import dev.facundo.fastqrreaderview.java.barcodescanning.OnCodeScanned;
+import dev.facundo.fastqrreaderview.java.barcodescanning.OnTrackUpdate;
+import dev.facundo.fastqrreaderview.java.barcodescanning.ScanCalibrator;
+import dev.facundo.fastqrreaderview.java.barcodescanning.ScanDedupCache;
+import dev.facundo.fastqrreaderview.java.barcodescanning.StillImageScanner;
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
@@ -65,6 +87,30 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
     private static final int CAMERA_REQUEST_ID = 513469796;
     private static final int REQUEST_PERMISSION = 47;
     private static final String TAG = "FastQrReaderViewPlugin";
+
+    // Pixels needed across a single module for the detector to resolve it reliably.
+    private static final double MIN_PIXELS_PER_MODULE = 2.0;
+    // Default for the "scanOptimized" preset: a module spanning 1/200 of the frame's shorter side.
+    private static final double DEFAULT_MIN_MODULE_SIZE = 0.005;
+    // Frame rate the adaptive governor aims for while detection keeps up.
+    private static final float MAX_SCAN_FPS = 30.0f;
+    // How often pipeline metrics are pushed on the camera's event channel.
+    private static final long METRICS_INTERVAL_MS = 1000;
+    // Distinct codes continuous scanning remembers, and how long one must be out of view by default
+    // before it is reported again.
+    private static final int DEDUP_CAPACITY = 64;
+    private static final long DEFAULT_DEDUP_WINDOW_MS = 1500;
+    // Tracking: codes followed at once, overlap needed to continue a track and below which it
+    // counts as moved, and frames a code may be missed before its track ends.
+    private static final int MAX_TRACKS = 16;
+    private static final float TRACK_MIN_IOU = 0.1f;
+    private static final float TRACK_MIN_MOVE_IOU = 0.9f;
+    private static final int TRACK_MAX_MISSED_FRAMES = 3;
+    // Distinct values the consensus filter votes on at once.
+    private static final int CONSENSUS_CANDIDATES = 8;
+
+    private static final float DEFAULT_MAX_AUTO_ZOOM = 4.0f;
+
     private static final SparseIntArray ORIENTATIONS =
             new SparseIntArray() {
                 {
@@ -75,9 +121,12 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
                 }
             };
 
-    private static CameraManager cameraManager;
-    private static QrReader camera;
-    private static MethodChannel channel;
+    private CameraManager cameraManager;
+    private CameraCapabilityCache capabilityCache;
+    private MethodChannel channel;
+    // Open readers by texture id. Each engine gets its own plugin instance, so readers of different
+    // engines never see each other.
+    private final LongSparseArray<QrReader> readers = new LongSparseArray<>();
 
 //    private final FlutterView view;
 
@@ -89,6 +138,19 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
     private Application.ActivityLifecycleCallbacks activityLifecycleCallbacks;
     private boolean requestingPermission;
     private Result permissionResult;
+    // Decodes still images one at a time, so only one large bitmap is ever held.
+    private ExecutorService imageExecutor;
+    // Suspends and reopens cameras for warm resume, in the order the activity was paused and
+    // resumed.
+    private ExecutorService cameraExecutor;
+    // Whether a calibration holds the camera. Only touched on the main thread.
+    private boolean calibrating;
+    // Shared by all scanFiles batches, one thread per core.
+    private ExecutorService batchExecutor;
+    // Running scanFiles batches by the id Dart gave them. Only touched on the main thread.
+    private final SparseArray<ImageBatchScanner> imageBatches = new SparseArray<>();
+    private EventChannel.EventSink scanFilesSink;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     /**
      * Plugin registration.
@@ -112,8 +174,8 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
                     return;
                 }
                 if (activity == FastQrReaderViewPlugin.this.currentActivity) {
-                    if (camera != null) {
-                        camera.startCameraSource();
+                    for (int i = 0; i < readers.size(); i++) {
+                        readers.valueAt(i).resumeCamera();
                     }
                 }
             }
@@ -121,11 +183,8 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
             @Override
             public void onActivityPaused(Activity activity) {
                 if (activity == FastQrReaderViewPlugin.this.currentActivity) {
-                    if (camera != null) {
-                        if (camera.preview != null) {
-                            camera.preview.stop();
-
-                        }
+                    for (int i = 0; i < readers.size(); i++) {
+                        readers.valueAt(i).pauseCamera();
                     }
                 }
             }
@@ -133,13 +192,20 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
             @Override
             public void onActivityStopped(Activity activity) {
                 if (activity == FastQrReaderViewPlugin.this.currentActivity) {
-                    if (camera != null) {
-                        if (camera.preview != null) {
-                            camera.preview.stop();
+                    for (int i = 0; i < readers.size(); i++) {
+                        QrReader reader = readers.valueAt(i);
+                        if (reader.warmResume) {
+                            // Already suspended on pause; the detector stays loaded for the resume.
+                            continue;
+                        }
+                        if (reader.preview != null) {
+                            reader.preview.stop();
                         }
 
-                        if (camera.cameraSource != null) {
-                            camera.cameraSource.release();
+                        // stop() rather than release(), which would also close the detector that
+                        // resumeCamera() starts the camera against again; dispose() releases it.
+                        if (reader.cameraSource != null) {
+                            reader.cameraSource.stop();
                         }
                     }
                 }
@@ -162,6 +228,20 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
 
         channel.setMethodCallHandler(this);
         cameraManager = (CameraManager) binding.getApplicationContext().getSystemService(Context.CAMERA_SERVICE);
+        capabilityCache = CameraCapabilityCache.getInstance(binding.getApplicationContext());
+        new EventChannel(binding.getBinaryMessenger(), "fast_qr_reader_view/scanFilesEvents")
+                .setStreamHandler(
+                        new EventChannel.StreamHandler() {
+                            @Override
+                            public void onListen(Object arguments, EventChannel.EventSink sink) {
+                                scanFilesSink = sink;
+                            }
+
+                            @Override
+                            public void onCancel(Object arguments) {
+                                scanFilesSink = null;
+                            }
+                        });
 //        channel.setMethodCallHandler(new FastQrReaderViewPlugin(registrar, registrar.view(), activity));
     }
 
@@ -211,9 +291,8 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
     public void onMethodCall(@NonNull MethodCall call, @NonNull final Result result) {
         switch (call.method) {
             case "init":
-                if (camera != null) {
-                    camera.close();
-                }
+                // Sent once per Dart isolate, so any reader still open was left behind by a hot restart.
+                disposeReaders();
                 result.success(null);
                 break;
             case "availableCameras":
@@ -222,14 +301,10 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
                     List<Map<String, Object>> cameras = new ArrayList<>();
                     for (String cameraName : cameraNames) {
                         HashMap<String, Object> details = new HashMap<>();
-                        CameraCharacteristics characteristics =
-                                cameraManager.getCameraCharacteristics(cameraName);
-//                        Object test = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
-//                        Log.d(TAG, "onMethodCall: "+test.toString());
+                        CameraCapabilityCache.Camera2Capabilities capabilities =
+                                capabilityCache.getCamera2Capabilities(cameraManager, cameraName);
                         details.put("name", cameraName);
-                        @SuppressWarnings("ConstantConditions")
-                        int lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
-                        switch (lensFacing) {
+                        switch (capabilities.lensFacing) {
                             case CameraMetadata.LENS_FACING_FRONT:
                                 details.put("lensFacing", "front");
                                 break;
@@ -248,21 +323,81 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
                 }
                 break;
             case "initialize": {
+                if (calibrating) {
+                    result.error("cameraInUse", "Wait for calibration to finish before initializing a reader", null);
+                    break;
+                }
                 String cameraName = call.argument("cameraName");
                 String resolutionPreset = call.argument("resolutionPreset");
                 ArrayList<String> codeFormats = call.argument("codeFormats");
-
-                if (camera != null) {
-                    camera.close();
+                String captureBackend = call.argument("captureBackend");
+                Double minModuleSize = call.argument("minModuleSize");
+                Integer maxInFlight = call.argument("maxInFlight");
+                Boolean adaptiveFrameRate = call.argument("adaptiveFrameRate");
+                Integer frameBufferCount = call.argument("frameBufferCount");
+                Boolean binaryResults = call.argument("binaryResults");
+                Integer batchWindowMs = call.argument("batchWindowMs");
+                Boolean trackBarcodes = call.argument("trackBarcodes");
+                Integer consensusVotes = call.argument("consensusVotes");
+                Integer consensusWindow = call.argument("consensusWindow");
+                Boolean autoTorch = call.argument("autoTorch");
+                Boolean guidedFocus = call.argument("guidedFocus");
+                Double autoZoomTarget = call.argument("autoZoomTarget");
+                Double maxAutoZoom = call.argument("maxAutoZoom");
+                Boolean warmResume = call.argument("warmResume");
+                if (autoZoomTarget != null && (autoZoomTarget <= 0 || autoZoomTarget > 1)) {
+                    result.error("invalidArguments", "autoZoomTarget must be in (0, 1]: " + autoZoomTarget, null);
+                    break;
+                }
+                // The consensus filter keeps one bit per frame in a 64-bit word.
+                if (consensusVotes != null && (consensusVotes < 1 || consensusVotes > 64)) {
+                    result.error("invalidArguments", "consensusVotes must be in [1, 64]: " + consensusVotes, null);
+                    break;
+                }
+                if (consensusWindow != null && (consensusWindow < 1 || consensusWindow > 64)) {
+                    result.error("invalidArguments", "consensusWindow must be in [1, 64]: " + consensusWindow, null);
+                    break;
                 }
-                camera = new QrReader(cameraName, resolutionPreset, codeFormats, result);
+
+                new QrReader(cameraName, resolutionPreset, codeFormats, captureBackend, minModuleSize,
+                        maxInFlight != null ? maxInFlight : 1,
+                        adaptiveFrameRate == null || adaptiveFrameRate,
+                        frameBufferCount != null ? frameBufferCount : 0,
+                        binaryResults != null && binaryResults,
+                        batchWindowMs != null ? batchWindowMs : -1,
+                        trackBarcodes != null && trackBarcodes,
+                        consensusVotes != null ? consensusVotes : 0,
+                        consensusWindow != null ? consensusWindow : 0,
+                        autoTorch != null && autoTorch,
+                        guidedFocus == null || guidedFocus,
+                        autoZoomTarget != null ? autoZoomTarget.floatValue() : 0,
+                        maxAutoZoom != null ? maxAutoZoom.floatValue() : DEFAULT_MAX_AUTO_ZOOM,
+                        warmResume != null && warmResume, result);
                 break;
             }
             case "startScanning":
-                startScanning(result);
+                startScanning(call, result);
                 break;
             case "stopScanning":
-                stopScanning(result);
+                stopScanning(call, result);
+                break;
+            case "setScanWindow":
+                setScanWindow(call, result);
+                break;
+            case "updateFormats":
+                updateFormats(call, result);
+                break;
+            case "getMetrics":
+                getMetrics(call, result);
+                break;
+            case "scanImage":
+                scanImage(call, result);
+                break;
+            case "scanFiles":
+                scanFiles(call, result);
+                break;
+            case "cancelScanFiles":
+                cancelScanFiles(call, result);
                 break;
             case "checkPermission":
                 String permission;
@@ -279,18 +414,22 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
                 break;
             case "settings":
                 openSettings();
+                result.success(null);
+                break;
             case "toggleFlash":
-                toggleFlash(result);
+                toggleFlash(call, result);
+                break;
+            case "setTorch":
+                setTorch(call, result);
+                break;
+            case "calibrate":
+                calibrate(call, result);
                 break;
             case "dispose": {
-                if (camera != null) {
-                    camera.dispose();
-                }
-
-                if (this.currentActivity != null && this.activityLifecycleCallbacks != null) {
-                    this.currentActivity
-                            .getApplication()
-                            .unregisterActivityLifecycleCallbacks(this.activityLifecycleCallbacks);
+                Number textureId = call.argument("textureId");
+                QrReader reader = textureId != null ? readers.get(textureId.longValue()) : null;
+                if (reader != null) {
+                    reader.dispose();
                 }
                 result.success(null);
                 break;
@@ -317,29 +456,88 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
         channel.setMethodCallHandler(null);
+        disposeReaders();
+        if (cameraExecutor != null) {
+            cameraExecutor.shutdown();
+            cameraExecutor = null;
+        }
+        if (imageExecutor != null) {
+            imageExecutor.shutdownNow();
+            imageExecutor = null;
+        }
+        for (int i = 0; i < imageBatches.size(); i++) {
+            imageBatches.valueAt(i).cancel();
+        }
+        imageBatches.clear();
+        if (batchExecutor != null) {
+            batchExecutor.shutdownNow();
+            batchExecutor = null;
+        }
     }
 
     @Override
     public void onAttachedToActivity(@NonNull ActivityPluginBinding binding) {
         currentActivity = binding.getActivity();
+        currentActivity.getApplication().registerActivityLifecycleCallbacks(activityLifecycleCallbacks);
         binding.addRequestPermissionsResultListener(this);
     }
 
     @Override
     public void onDetachedFromActivityForConfigChanges() {
+        onDetachedFromActivity();
     }
 
     @Override
     public void onReattachedToActivityForConfigChanges(@NonNull ActivityPluginBinding binding) {
-        currentActivity = binding.getActivity();
-        binding.addRequestPermissionsResultListener(this);
+        onAttachedToActivity(binding);
     }
 
     @Override
     public void onDetachedFromActivity() {
+        if (currentActivity != null) {
+            currentActivity.getApplication().unregisterActivityLifecycleCallbacks(activityLifecycleCallbacks);
+        }
         currentActivity = null;
     }
 
+    private ExecutorService getCameraExecutor() {
+        if (cameraExecutor == null) {
+            cameraExecutor = Executors.newSingleThreadExecutor();
+        }
+        return cameraExecutor;
+    }
+
+    /**
+     * Maps the format names sent from Dart to ML Kit's format constants, ignoring unknown names.
+     */
+    private static ArrayList<Integer> parseCodeFormats(List<String> formats) {
+        // AVAILABLE FORMATS:
+        // enum CodeFormat { codabar, code39, code93, code128, ean8, ean13, itf, upca, upce, aztec, datamatrix, pdf417, qr }
+
+        Map<String, Integer> map = new HashMap<>();
+        map.put("codabar", Barcode.FORMAT_CODABAR);
+        map.put("code39", Barcode.FORMAT_CODE_39);
+        map.put("code93", Barcode.FORMAT_CODE_93);
+        map.put("code128", Barcode.FORMAT_CODE_128);
+        map.put("ean8", Barcode.FORMAT_EAN_8);
+        map.put("ean13", Barcode.FORMAT_EAN_13);
+        map.put("itf", Barcode.FORMAT_ITF);
+        map.put("upca", Barcode.FORMAT_UPC_A);
+        map.put("upce", Barcode.FORMAT_UPC_E);
+        map.put("aztec", Barcode.FORMAT_AZTEC);
+        map.put("datamatrix", Barcode.FORMAT_DATA_MATRIX);
+        map.put("pdf417", Barcode.FORMAT_PDF417);
+        map.put("qr", Barcode.FORMAT_QR_CODE);
+
+        ArrayList<Integer> reqFormats = new ArrayList<>();
+        for (String f : formats) {
+            if (map.get(f) != null) {
+                reqFormats.add(map.get(f));
+            }
+        }
+        return reqFormats;
+    }
+
     private static class CompareSizesByArea implements Comparator<Size> {
         @Override
         public int compare(Size lhs, Size rhs) {
@@ -349,29 +547,321 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
         }
     }
 
-    void startScanning(@NonNull Result result) {
-        camera.scanning = true;
-        camera.barcodeScanningProcessor.shouldThrottle.set(false);
+    /**
+     * Returns the reader for the call's textureId, or replies with an error and returns null if there
+     * is none.
+     */
+    @Nullable
+    private QrReader getReader(@NonNull MethodCall call, @NonNull Result result) {
+        Number textureId = call.argument("textureId");
+        QrReader reader = textureId != null ? readers.get(textureId.longValue()) : null;
+        if (reader == null) {
+            result.error("noCamera", call.method + " was called before initialize", null);
+        }
+        return reader;
+    }
+
+    private void disposeReaders() {
+        // dispose() removes the reader from the map.
+        while (readers.size() > 0) {
+            readers.valueAt(0).dispose();
+        }
+    }
+
+    void startScanning(@NonNull MethodCall call, @NonNull Result result) {
+        QrReader reader = getReader(call, result);
+        if (reader == null) {
+            return;
+        }
+        Boolean continuous = call.argument("continuous");
+        if (continuous != null && continuous) {
+            Number dedupWindowMs = call.argument("dedupWindowMs");
+            reader.dedupCache = new ScanDedupCache(DEDUP_CAPACITY,
+                    dedupWindowMs != null ? dedupWindowMs.longValue() : DEFAULT_DEDUP_WINDOW_MS);
+        } else {
+            reader.dedupCache = null;
+        }
+        reader.scanning = true;
+        reader.barcodeScanningProcessor.clearConsensus();
+        reader.barcodeScanningProcessor.setActive(true);
+        result.success(null);
+    }
+
+    void stopScanning(@NonNull MethodCall call, @NonNull Result result) {
+        QrReader reader = getReader(call, result);
+        if (reader == null) {
+            return;
+        }
+        reader.stopScanning();
+        result.success(null);
+    }
+
+    void updateFormats(@NonNull MethodCall call, @NonNull Result result) {
+        QrReader reader = getReader(call, result);
+        if (reader == null) {
+            return;
+        }
+        reader.reqFormats = parseCodeFormats(call.<List<String>>argument("codeFormats"));
+        if (reader.barcodeScanningProcessor != null) {
+            reader.barcodeScanningProcessor.updateFormats(reader.reqFormats);
+        }
+        result.success(null);
+    }
+
+    void getMetrics(@NonNull MethodCall call, @NonNull Result result) {
+        QrReader reader = getReader(call, result);
+        if (reader == null) {
+            return;
+        }
+        result.success(reader.metrics.toMap());
+    }
+
+    /**
+     * Runs {@link ScanCalibrator} on the legacy camera with the given name, off the main thread, and
+     * replies with the winning measurement.
+     */
+    void calibrate(@NonNull MethodCall call, @NonNull final Result result) {
+        String cameraName = call.argument("cameraName");
+        List<String> codeFormats = call.argument("codeFormats");
+        if (currentActivity == null) {
+            result.error("noActivity", "calibrate needs an activity", null);
+            return;
+        }
+        if (ContextCompat.checkSelfPermission(currentActivity, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            result.error("cameraPermission", "Camera permission not granted", null);
+            return;
+        }
+        if (readers.size() > 0 || calibrating) {
+            result.error("cameraInUse", "Dispose all readers before calibrating", null);
+            return;
+        }
+        int facing = CameraSource.CAMERA_FACING_BACK;
+        if (cameraName != null) {
+            try {
+                if (capabilityCache.getCamera2Capabilities(cameraManager, cameraName).lensFacing
+                        == CameraMetadata.LENS_FACING_FRONT) {
+                    facing = CameraSource.CAMERA_FACING_FRONT;
+                }
+            } catch (CameraAccessException e) {
+                result.error("cameraAccess", e.getMessage(), null);
+                return;
+            }
+        }
+        final ScanCalibrator calibrator = new ScanCalibrator(currentActivity, facing,
+                codeFormats != null ? parseCodeFormats(codeFormats) : new ArrayList<Integer>());
+        // Readers opened meanwhile would fight calibration for the camera; initialize turns them
+        // away until it is done.
+        calibrating = true;
+        getCameraExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final ScanCalibrator.Measurement best = calibrator.run();
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            calibrating = false;
+                            if (best == null) {
+                                result.error("noCodeInView", "No code was read during calibration", null);
+                            } else {
+                                result.success(best.toMap());
+                            }
+                        }
+                    });
+                } catch (final Exception e) {
+                    Log.e(TAG, "calibrate failed", e);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            calibrating = false;
+                            result.error("calibrationFailed", e.getMessage(), null);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Scans a still image given as a file path or as encoded bytes, off the main thread. Replies with
+     * one {@link BarcodeResultEncoder} payload per code, in image pixels.
+     */
+    void scanImage(@NonNull MethodCall call, @NonNull final Result result) {
+        final String path = call.argument("path");
+        final byte[] bytes = call.argument("bytes");
+        List<String> codeFormats = call.argument("codeFormats");
+        if (path == null && bytes == null) {
+            result.error("invalidImage", "scanImage needs a path or bytes", null);
+            return;
+        }
+        final ArrayList<Integer> formats = codeFormats != null
+                ? parseCodeFormats(codeFormats)
+                : new ArrayList<Integer>();
+        if (imageExecutor == null) {
+            imageExecutor = Executors.newSingleThreadExecutor();
+        }
+        imageExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                StillImageScanner scanner = new StillImageScanner(formats);
+                try {
+                    final List<byte[]> codes = path != null
+                            ? scanner.scanFile(path)
+                            : scanner.scanBytes(bytes);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            result.success(codes);
+                        }
+                    });
+                } catch (final Exception e) {
+                    Log.e(TAG, "scanImage failed", e);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            result.error("scanImage", e.getMessage(), null);
+                        }
+                    });
+                } finally {
+                    scanner.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts scanning a list of image files on the batch pool and replies right away. Each finished
+     * file is sent on the scanFiles event channel as a "file" event carrying its results and the
+     * progress so far, followed by one "done" event for the batch.
+     */
+    void scanFiles(@NonNull MethodCall call, @NonNull Result result) {
+        Integer batchId = call.argument("batchId");
+        List<String> paths = call.argument("paths");
+        List<String> codeFormats = call.argument("codeFormats");
+        if (batchId == null || paths == null) {
+            result.error("invalidArguments", "scanFiles needs a batchId and paths", null);
+            return;
+        }
+        ArrayList<Integer> formats = codeFormats != null
+                ? parseCodeFormats(codeFormats)
+                : new ArrayList<Integer>();
+        int workers = Runtime.getRuntime().availableProcessors();
+        if (batchExecutor == null) {
+            batchExecutor = Executors.newFixedThreadPool(workers);
+        }
+        final int id = batchId;
+        final int total = paths.size();
+        ImageBatchScanner batch = new ImageBatchScanner(paths, formats, new ImageBatchScanner.Listener() {
+            @Override
+            public void onFileScanned(int index, String path, List<byte[]> results, Exception error, int completed) {
+                final Map<String, Object> event = new HashMap<>();
+                event.put("eventType", "file");
+                event.put("batchId", id);
+                event.put("index", index);
+                event.put("path", path);
+                event.put("results", results);
+                event.put("error", error != null ? error.toString() : null);
+                event.put("completed", completed);
+                event.put("total", total);
+                sendScanFilesEvent(event);
+            }
+
+            @Override
+            public void onFinished(final boolean cancelled) {
+                final Map<String, Object> event = new HashMap<>();
+                event.put("eventType", "done");
+                event.put("batchId", id);
+                event.put("cancelled", cancelled);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        imageBatches.remove(id);
+                    }
+                });
+                sendScanFilesEvent(event);
+            }
+        });
+        imageBatches.put(id, batch);
+        batch.start(batchExecutor, workers);
         result.success(null);
     }
 
-    void stopScanning(@NonNull Result result) {
-        stopScanning();
+    void cancelScanFiles(@NonNull MethodCall call, @NonNull Result result) {
+        Integer batchId = call.argument("batchId");
+        ImageBatchScanner batch = batchId != null ? imageBatches.get(batchId) : null;
+        if (batch != null) {
+            batch.cancel();
+        }
         result.success(null);
     }
 
-    private void stopScanning() {
-        camera.scanning = false;
-        camera.barcodeScanningProcessor.shouldThrottle.set(true);
+    private void sendScanFilesEvent(final Map<String, Object> event) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (scanFilesSink != null) {
+                    scanFilesSink.success(event);
+                }
+            }
+        });
+    }
+
+    void setScanWindow(@NonNull MethodCall call, @NonNull Result result) {
+        QrReader reader = getReader(call, result);
+        if (reader == null) {
+            return;
+        }
+        ScanWindow window = null;
+        if (call.hasArgument("left")) {
+            try {
+                window = new ScanWindow(
+                        call.<Double>argument("left").floatValue(),
+                        call.<Double>argument("top").floatValue(),
+                        call.<Double>argument("right").floatValue(),
+                        call.<Double>argument("bottom").floatValue());
+            } catch (IllegalArgumentException e) {
+                result.error("IllegalArgumentException", e.getMessage(), null);
+                return;
+            }
+        }
+        reader.scanWindow = window;
+        if (reader.barcodeScanningProcessor != null) {
+            reader.barcodeScanningProcessor.setScanWindow(window);
+        }
+        if (reader.focusController != null) {
+            reader.focusController.setScanWindow(window);
+        }
+        result.success(null);
     }
 
-    void toggleFlash(@NonNull Result result) {
-        toggleFlash();
+    void toggleFlash(@NonNull MethodCall call, @NonNull Result result) {
+        QrReader reader = getReader(call, result);
+        if (reader == null) {
+            return;
+        }
+        if (reader.cameraSource == null) {
+            result.error("noCamera", "The camera failed to start", null);
+            return;
+        }
+        reader.takeOverTorch();
+        reader.cameraSource.toggleFlash();
         result.success(null);
     }
 
-    private void toggleFlash() {
-        camera.cameraSource.toggleFlash();
+    void setTorch(@NonNull MethodCall call, @NonNull Result result) {
+        QrReader reader = getReader(call, result);
+        if (reader == null) {
+            return;
+        }
+        if (reader.cameraSource == null) {
+            result.error("noCamera", "The camera failed to start", null);
+            return;
+        }
+        Boolean on = call.argument("on");
+        reader.takeOverTorch();
+        reader.cameraSource.setTorch(on != null && on);
+        result.success(null);
     }
 
     private class QrReader {
@@ -385,46 +875,104 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
         ArrayList<Integer> reqFormats;
         private final TextureRegistry.SurfaceTextureEntry textureEntry;
         private EventChannel.EventSink eventSink;
+        private final String cameraName;
+        private final int maxInFlight;
+        private final boolean adaptiveFrameRate;
+        private final int frameBufferCount;
+        // Whether to send results as BarcodeResultEncoder payloads instead of the raw value only.
+        private final boolean binaryResults;
+        // How long to collect results before sending them as one event, 0 for one event per frame,
+        // or -1 to send every result on its own over the method channel.
+        private final long batchWindowMs;
+        private ArrayList<byte[]> pendingResults = new ArrayList<>();
+        private long pendingCaptureNanos;
+        private boolean flushScheduled;
+        private final boolean trackBarcodes;
+        // Frames a linear code must be read in, within consensusWindow frames, before it is reported;
+        // 0 reports every read right away.
+        private final int consensusVotes;
+        private final int consensusWindow;
+        // Whether the torch follows the scene brightness, until the torch is toggled by hand.
+        private boolean autoTorch;
+        // Whether focus and metering follow the codes in view.
+        private final boolean guidedFocus;
+        @Nullable
+        private FocusController focusController;
+        // Fraction of the frame's shorter side auto zoom tries to make codes span, 0 for no zoom.
+        private final float autoZoomTarget;
+        private final float maxAutoZoom;
+        @Nullable
+        private ZoomController zoomController;
+        // Whether leaving the app only closes the camera, keeping the detector loaded, and coming
+        // back reopens it off the main thread.
+        private final boolean warmResume;
+        // Set while the camera is suspended for warm resume. Only touched on the main thread.
+        private boolean suspended;
+        // Checked by warm resume, which may still be reopening the camera when the reader is disposed.
+        private volatile boolean disposed;
+        // Track events of the frame being tracked, sent together once it is done.
+        private ArrayList<Map<String, Object>> pendingTrackEvents = new ArrayList<>();
+        private final Runnable resultFlusher = new Runnable() {
+            @Override
+            public void run() {
+                flushResults();
+            }
+        };
+        private final PipelineMetrics metrics = new PipelineMetrics();
+        // Posts periodic metrics and batched results on the main thread.
+        private final Handler handler = new Handler(Looper.getMainLooper());
+        private final Runnable metricsReporter = new Runnable() {
+            @Override
+            public void run() {
+                if (eventSink != null) {
+                    Map<String, Object> event = new HashMap<>();
+                    event.put("eventType", "metrics");
+                    event.put("metrics", metrics.toMap());
+                    eventSink.success(event);
+                }
+                handler.postDelayed(this, METRICS_INTERVAL_MS);
+            }
+        };
+        @Nullable
+        private FrameRateGovernor frameRateGovernor;
         private boolean isFrontFacing;
+        private boolean useCamera2;
         private boolean scanning;
+        // Set while scanning continuously, to report each code once while it stays in view.
+        @Nullable
+        private ScanDedupCache dedupCache;
         private Size captureSize;
+        private Size previewSize;
+        @Nullable
+        private ScanWindow scanWindow;
         private Runnable cameraPermissionContinuation;
 
-        QrReader(final String cameraName, final String resolutionPreset, final ArrayList<String> formats, @NonNull final Result result) {
-            // AVAILABLE FORMATS:
-            // enum CodeFormat { codabar, code39, code93, code128, ean8, ean13, itf, upca, upce, aztec, datamatrix, pdf417, qr }
-
-            Map<String, Integer> map = new HashMap<>();
-            map.put("codabar", Barcode.FORMAT_CODABAR);
-            map.put("code39", Barcode.FORMAT_CODE_39);
-            map.put("code93", Barcode.FORMAT_CODE_93);
-            map.put("code128", Barcode.FORMAT_CODE_128);
-            map.put("ean8", Barcode.FORMAT_EAN_8);
-            map.put("ean13", Barcode.FORMAT_EAN_13);
-            map.put("itf", Barcode.FORMAT_ITF);
-            map.put("upca", Barcode.FORMAT_UPC_A);
-            map.put("upce", Barcode.FORMAT_UPC_E);
-            map.put("aztec", Barcode.FORMAT_AZTEC);
-            map.put("datamatrix", Barcode.FORMAT_DATA_MATRIX);
-            map.put("pdf417", Barcode.FORMAT_PDF417);
-            map.put("qr", Barcode.FORMAT_QR_CODE);
-
-
-            reqFormats = new ArrayList<>();
-
-            for (String f :
-                    formats) {
-                if (map.get(f) != null) {
-                    reqFormats.add(map.get(f));
-                }
-            }
+        QrReader(final String cameraName, final String resolutionPreset, final ArrayList<String> formats, @Nullable final String captureBackend, @Nullable final Double minModuleSize, int maxInFlight, boolean adaptiveFrameRate, int frameBufferCount, boolean binaryResults, int batchWindowMs, boolean trackBarcodes, int consensusVotes, int consensusWindow, boolean autoTorch, boolean guidedFocus, float autoZoomTarget, float maxAutoZoom, boolean warmResume, @NonNull final Result result) {
+            this.cameraName = cameraName;
+            this.maxInFlight = Math.max(1, Math.min(maxInFlight, BarcodeScanningProcessor.MAX_IN_FLIGHT));
+            this.adaptiveFrameRate = adaptiveFrameRate;
+            this.frameBufferCount = Math.max(0, frameBufferCount);
+            this.binaryResults = binaryResults;
+            this.batchWindowMs = batchWindowMs;
+            this.trackBarcodes = trackBarcodes;
+            this.consensusVotes = consensusVotes;
+            this.consensusWindow = consensusWindow;
+            this.autoTorch = autoTorch;
+            this.guidedFocus = guidedFocus;
+            this.autoZoomTarget = autoZoomTarget;
+            this.maxAutoZoom = maxAutoZoom;
+            this.warmResume = warmResume;
+            reqFormats = parseCodeFormats(formats);
 
             textureEntry =  textureRegistry.createSurfaceTexture();
+            readers.put(textureEntry.id(), this);
 //barcodeScanningProcessor.onSuccess();
 //
             try {
-                Size minPreviewSize;
+                Size minPreviewSize = null;
                 switch (resolutionPreset) {
+                    case "scanOptimized":
+                        break;
                     case "high":
                         minPreviewSize = new Size(1024, 768);
                         break;
@@ -438,17 +986,21 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
                         throw new IllegalArgumentException("Unknown preset: " + resolutionPreset);
                 }
 //
-                CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraName);
-                StreamConfigurationMap streamConfigurationMap =
-                        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-                //noinspection ConstantConditions
-                int sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-                //noinspection ConstantConditions
-                isFrontFacing =
-                        characteristics.get(CameraCharacteristics.LENS_FACING)
-                                == CameraMetadata.LENS_FACING_FRONT;
-                computeBestCaptureSize(streamConfigurationMap);
-                computeBestPreviewAndRecordingSize(streamConfigurationMap, minPreviewSize, captureSize);
+                CameraCapabilityCache.Camera2Capabilities capabilities =
+                        capabilityCache.getCamera2Capabilities(cameraManager, cameraName);
+                isFrontFacing = capabilities.lensFacing == CameraMetadata.LENS_FACING_FRONT;
+                if (captureBackend == null || captureBackend.equals("auto")) {
+                    useCamera2 = capabilities.camera2Supported;
+                } else {
+                    useCamera2 = captureBackend.equals("camera2");
+                }
+                computeBestCaptureSize(capabilities.yuvSizes);
+                if (minPreviewSize == null) {
+                    computeScanOptimizedPreviewSize(capabilities.yuvSizes,
+                            minModuleSize != null ? minModuleSize : DEFAULT_MIN_MODULE_SIZE);
+                } else {
+                    computeBestPreviewAndRecordingSize(capabilities.textureSizes, minPreviewSize, captureSize);
+                }
 
                 if (cameraPermissionContinuation != null) {
                     result.error("cameraPermission", "Camera permission request ongoing", null);
@@ -485,12 +1037,82 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
                     }
                 }
             } catch (CameraAccessException e) {
+                dispose();
                 result.error("CameraAccess", e.getMessage(), null);
             } catch (IllegalArgumentException e) {
+                dispose();
                 result.error("IllegalArgumentException", e.getMessage(), null);
             }
         }
 
+        /** Stops the camera when the activity is paused. */
+        private void pauseCamera() {
+            if (!warmResume) {
+                if (preview != null) {
+                    preview.stop();
+                }
+                return;
+            }
+            final CameraSource source = cameraSource;
+            if (source == null || suspended) {
+                return;
+            }
+            suspended = true;
+            getCameraExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    source.suspend();
+                }
+            });
+        }
+
+        /** Starts the camera again when the activity is resumed. */
+        private void resumeCamera() {
+            if (!suspended) {
+                startCameraSource();
+                return;
+            }
+            suspended = false;
+            final CameraSource source = cameraSource;
+            final CameraSourcePreview sourcePreview = preview;
+            if (source == null || sourcePreview == null) {
+                return;
+            }
+            // Opening a camera takes a few hundred milliseconds; the detector is still loaded, so
+            // frames are scanned as soon as it is open.
+            getCameraExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Not under the source's lock: the main thread keeps using the source while the
+                    // camera opens. dispose() may stop it meanwhile, which makes the open fail, or
+                    // right before it starts, which the check after it catches.
+                    if (disposed) {
+                        return;
+                    }
+                    try {
+                        sourcePreview.start(source);
+                    } catch (IOException e) {
+                        if (disposed) {
+                            return;
+                        }
+                        Log.w(TAG, "Unable to reopen camera source, starting it again.", e);
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!disposed && cameraSource == source) {
+                                    startCameraSource();
+                                }
+                            }
+                        });
+                        return;
+                    }
+                    if (disposed) {
+                        source.stop();
+                    }
+                }
+            });
+        }
+
         private void startCameraSource() {
             if (cameraSource != null) {
                 try {
@@ -500,6 +1122,19 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
                         preview.start(cameraSource);
                     }
                 } catch (IOException e) {
+                    if (cameraSource instanceof Camera2Source) {
+                        // Some devices advertise camera2 support but fail to open with it; fall back
+                        // to the legacy API rather than leaving the user without a scanner.
+                        Log.w(TAG, "Unable to start camera2 source, falling back to legacy camera.", e);
+                        useCamera2 = false;
+                        // stop() rather than release(), which would also close the shared detector.
+                        cameraSource.stop();
+                        cameraSource = createCameraSource();
+                        updateCameraControllers();
+                        cameraSource.setMachineLearningFrameProcessor(barcodeScanningProcessor);
+                        startCameraSource();
+                        return;
+                    }
                     Log.e(TAG, "Unable to start camera source.", e);
                     cameraSource.release();
                     cameraSource = null;
@@ -515,11 +1150,14 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
                                 @Override
                                 public void onListen(Object arguments, EventChannel.EventSink eventSink) {
                                     QrReader.this.eventSink = eventSink;
+                                    handler.removeCallbacks(metricsReporter);
+                                    handler.postDelayed(metricsReporter, METRICS_INTERVAL_MS);
                                 }
 
                                 @Override
                                 public void onCancel(Object arguments) {
                                     QrReader.this.eventSink = null;
+                                    handler.removeCallbacks(metricsReporter);
                                 }
                             });
         }
@@ -530,8 +1168,7 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
                     == PackageManager.PERMISSION_GRANTED;
         }
 
-        private void computeBestPreviewAndRecordingSize(StreamConfigurationMap streamConfigurationMap, Size minPreviewSize, Size captureSize) {
-            Size[] sizes = streamConfigurationMap.getOutputSizes(SurfaceTexture.class);
+        private void computeBestPreviewAndRecordingSize(Size[] sizes, Size minPreviewSize, Size captureSize) {
             float captureSizeRatio = (float) captureSize.getWidth() / captureSize.getHeight();
             List<Size> goodEnough = new ArrayList<>();
             for (Size s : sizes) {
@@ -544,7 +1181,6 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
 
             Collections.sort(goodEnough, new CompareSizesByArea());
 
-            Size previewSize;
             Size videoSize;
             if (goodEnough.isEmpty()) {
                 previewSize = sizes[0];
@@ -563,12 +1199,32 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
             }
         }
 
-        private void computeBestCaptureSize(StreamConfigurationMap streamConfigurationMap) {
+        /**
+         * Picks the smallest analysis stream whose shorter side still gives every module of the
+         * smallest expected code {@link #MIN_PIXELS_PER_MODULE} pixels.
+         *
+         * @param minModuleSize size of the smallest module to resolve, as a fraction of the frame's
+         *                      shorter side
+         */
+        private void computeScanOptimizedPreviewSize(Size[] sizes, double minModuleSize) {
+            if (minModuleSize <= 0 || minModuleSize > 1) {
+                throw new IllegalArgumentException("minModuleSize must be in (0, 1]: " + minModuleSize);
+            }
+            int requiredShortSide = (int) Math.ceil(MIN_PIXELS_PER_MODULE / minModuleSize);
+            Size smallest = null;
+            for (Size s : sizes) {
+                if (Math.min(s.getWidth(), s.getHeight()) >= requiredShortSide
+                        && (smallest == null || new CompareSizesByArea().compare(s, smallest) < 0)) {
+                    smallest = s;
+                }
+            }
+            // No stream is large enough; the largest one is the best we can do.
+            previewSize = smallest != null ? smallest : Collections.max(Arrays.asList(sizes), new CompareSizesByArea());
+        }
+
+        private void computeBestCaptureSize(Size[] yuvSizes) {
             // For still image captures, we use the largest available size.
-            captureSize =
-                    Collections.max(
-                            Arrays.asList(streamConfigurationMap.getOutputSizes(ImageFormat.YUV_420_888)),
-                            new CompareSizesByArea());
+            captureSize = Collections.max(Arrays.asList(yuvSizes), new CompareSizesByArea());
         }
 
         @SuppressLint("MissingPermission")
@@ -578,24 +1234,97 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
                     result.error("cameraPermission", "Camera permission not granted", null);
             } else {
 //                try {
-                cameraSource = new CameraSource(currentActivity);
-                cameraSource.setFacing(isFrontFacing ? CameraSource.CAMERA_FACING_FRONT : CameraSource.CAMERA_FACING_BACK);
-                barcodeScanningProcessor = new BarcodeScanningProcessor(reqFormats);
+                frameRateGovernor = adaptiveFrameRate ? new FrameRateGovernor(MAX_SCAN_FPS, maxInFlight) : null;
+                cameraSource = createCameraSource();
+                barcodeScanningProcessor = new BarcodeScanningProcessor(reqFormats, maxInFlight);
+                barcodeScanningProcessor.setScanWindow(scanWindow);
+                barcodeScanningProcessor.setFrameRateGovernor(frameRateGovernor);
+                barcodeScanningProcessor.setPipelineMetrics(metrics);
                 barcodeScanningProcessor.callback = new OnCodeScanned() {
                     @Override
-                    public void onCodeScanned(Barcode barcode) {
-                        if (camera.scanning) {
+                    public void onCodesScanned(List<Barcode> barcodes, FrameMetadata frameMetadata) {
+                        ScanDedupCache dedup = dedupCache;
+                        boolean batched = batchWindowMs >= 0;
+                        for (Barcode barcode : barcodes) {
+                            if (!scanning) {
+                                break;
+                            }
+                            if (dedup != null && !dedup.isNew(barcode.getFormat(), BarcodeScanningProcessor.valueBytes(barcode), SystemClock.elapsedRealtime())) {
+                                continue;
+                            }
 //                                            if (firebaseVisionBarcodes.size() > 0) {
-                            Log.w(TAG, "onSuccess: " + barcode.getRawValue());
-                            channel.invokeMethod("updateCode", barcode.getRawValue());
+                            if (batched) {
+                                if (pendingResults.isEmpty()) {
+                                    pendingCaptureNanos = frameMetadata.getCaptureNanos();
+                                }
+                                pendingResults.add(encodeResult(barcode, frameMetadata));
+                                continue;
+                            }
+                            Map<String, Object> arguments = new HashMap<>();
+                            arguments.put("textureId", textureEntry.id());
+                            if (binaryResults) {
+                                arguments.put("result", encodeResult(barcode, frameMetadata));
+                                channel.invokeMethod("updateResult", arguments);
+                            } else {
+                                arguments.put("code", barcode.getRawValue());
+                                channel.invokeMethod("updateCode", arguments);
+                            }
+                            metrics.record(PipelineMetrics.Stage.TOTAL, frameMetadata.getCaptureNanos(), System.nanoTime());
 //                                                Map<String, String> event = new HashMap<>();
 //                                                event.put("eventType", "cameraClosing");
 //                                                camera.eventSink.success(event);
-                            stopScanning();
+                            if (dedup == null) {
+                                stopScanning();
+                            }
 //                                            }
                         }
+
+                        if (!batched || pendingResults.isEmpty()) {
+                            return;
+                        }
+                        if (dedup == null) {
+                            // Single scan: the whole frame's codes go out at once, then scanning stops.
+                            flushResults();
+                            stopScanning();
+                        } else if (batchWindowMs == 0) {
+                            flushResults();
+                        } else if (!flushScheduled) {
+                            flushScheduled = true;
+                            handler.postDelayed(resultFlusher, batchWindowMs);
+                        }
                     }
                 };
+                if (consensusVotes > 1) {
+                    barcodeScanningProcessor.setConsensusFilter(
+                            new ConsensusFilter(consensusVotes, Math.max(consensusVotes, consensusWindow), CONSENSUS_CANDIDATES),
+                            BarcodeScanningProcessor.LINEAR_FORMATS);
+                }
+                if (trackBarcodes) {
+                    barcodeScanningProcessor.setTracker(
+                            new BarcodeTracker(MAX_TRACKS, TRACK_MIN_IOU, TRACK_MIN_MOVE_IOU, TRACK_MAX_MISSED_FRAMES),
+                            new OnTrackUpdate() {
+                                @Override
+                                public void onAppeared(int trackId, Barcode barcode, FrameMetadata frameMetadata) {
+                                    addTrackEvent("appeared", trackId, encodeResult(barcode, frameMetadata));
+                                }
+
+                                @Override
+                                public void onMoved(int trackId, Barcode barcode, FrameMetadata frameMetadata) {
+                                    addTrackEvent("moved", trackId, encodeResult(barcode, frameMetadata));
+                                }
+
+                                @Override
+                                public void onDisappeared(int trackId) {
+                                    addTrackEvent("disappeared", trackId, null);
+                                }
+
+                                @Override
+                                public void onFrameTracked() {
+                                    flushTrackEvents();
+                                }
+                            });
+                }
+                updateCameraControllers();
                 cameraSource.setMachineLearningFrameProcessor(barcodeScanningProcessor);
                 preview = new CameraSourcePreview(currentActivity, null, textureEntry.surfaceTexture());
 
@@ -610,29 +1339,146 @@ public class FastQrReaderViewPlugin implements FlutterPlugin, MethodCallHandler,
             }
         }
 
-        private void sendErrorEvent(String errorDescription) {
+        /**
+         * Stops automatic torch control; the operator took over the torch and would only be fought.
+         */
+        private void takeOverTorch() {
+            autoTorch = false;
+            cameraSource.setAutoTorch(null);
+        }
+
+        private void stopScanning() {
+            scanning = false;
+            barcodeScanningProcessor.setActive(false);
+            barcodeScanningProcessor.clearTracks();
+            if (zoomController != null) {
+                zoomController.reset();
+            }
+        }
+
+        /** Points new focus and zoom controllers at the current camera source. */
+        private void updateCameraControllers() {
+            if (guidedFocus) {
+                focusController = new FocusController(cameraSource);
+                focusController.setScanWindow(scanWindow);
+                barcodeScanningProcessor.setFocusController(focusController);
+            }
+            if (autoZoomTarget > 0) {
+                zoomController = new ZoomController(cameraSource, autoZoomTarget, maxAutoZoom);
+                barcodeScanningProcessor.setZoomController(zoomController);
+            }
+        }
+
+        /**
+         * Queues a track event for this frame. Only called for tracks that changed, so frames where
+         * nothing moved build nothing.
+         */
+        private void addTrackEvent(String type, int trackId, @Nullable byte[] result) {
+            Map<String, Object> event = new HashMap<>();
+            event.put("type", type);
+            event.put("trackId", trackId);
+            event.put("result", result);
+            pendingTrackEvents.add(event);
+        }
+
+        /**
+         * Sends the current frame's track events, if any, as one "tracks" event.
+         */
+        private void flushTrackEvents() {
+            if (pendingTrackEvents.isEmpty()) {
+                return;
+            }
             if (eventSink != null) {
-                Map<String, String> event = new HashMap<>();
-                event.put("eventType", "error");
-                event.put("errorDescription", errorDescription);
+                Map<String, Object> event = new HashMap<>();
+                event.put("eventType", "tracks");
+                event.put("events", pendingTrackEvents);
                 eventSink.success(event);
             }
+            pendingTrackEvents = new ArrayList<>();
         }
 
-        private void close() {
-            if (preview != null) {
-                preview.stop();
+        /**
+         * Sends every collected result as one "results" event on this camera's event channel.
+         */
+        private void flushResults() {
+            handler.removeCallbacks(resultFlusher);
+            flushScheduled = false;
+            if (pendingResults.isEmpty()) {
+                return;
             }
+            if (eventSink != null) {
+                Map<String, Object> event = new HashMap<>();
+                event.put("eventType", "results");
+                event.put("results", pendingResults);
+                eventSink.success(event);
+                metrics.record(PipelineMetrics.Stage.TOTAL, pendingCaptureNanos, System.nanoTime());
+            } else {
+                Log.w(TAG, "Dropping " + pendingResults.size() + " results, nobody is listening.");
+            }
+            pendingResults = new ArrayList<>();
+        }
 
-            if (cameraSource != null) {
-                cameraSource.release();
+        /**
+         * Encodes everything Dart needs about a code into one message, with geometry mapped from the
+         * analyzed region to the full frame.
+         */
+        private byte[] encodeResult(Barcode barcode, FrameMetadata frameMetadata) {
+            int left = 0;
+            int top = 0;
+            int right = 0;
+            int bottom = 0;
+            Rect box = barcode.getBoundingBox();
+            if (box != null) {
+                left = frameMetadata.toFrameX(box.left);
+                top = frameMetadata.toFrameY(box.top);
+                right = frameMetadata.toFrameX(box.right);
+                bottom = frameMetadata.toFrameY(box.bottom);
+            }
+            int[] corners = null;
+            Point[] points = barcode.getCornerPoints();
+            if (points != null) {
+                corners = new int[points.length * 2];
+                for (int i = 0; i < points.length; i++) {
+                    corners[2 * i] = frameMetadata.toFrameX(points[i].x);
+                    corners[2 * i + 1] = frameMetadata.toFrameY(points[i].y);
+                }
             }
+            return BarcodeResultEncoder.encode(
+                    barcode.getFormat(), barcode.getValueType(), frameMetadata.getCaptureNanos(),
+                    left, top, right, bottom,
+                    corners, barcode.getRawBytes(), barcode.getRawValue());
+        }
 
-            camera = null;
+        private CameraSource createCameraSource() {
+            CameraSource source = useCamera2
+                    ? new Camera2Source(currentActivity, cameraName)
+                    : new CameraSource(currentActivity);
+            source.setFacing(isFrontFacing ? CameraSource.CAMERA_FACING_FRONT : CameraSource.CAMERA_FACING_BACK);
+            if (previewSize != null) {
+                source.setRequestedPreviewSize(previewSize.getWidth(), previewSize.getHeight());
+            }
+            source.setFrameRateGovernor(frameRateGovernor);
+            source.setFrameBufferCount(frameBufferCount);
+            if (autoTorch) {
+                source.setAutoTorch(new AutoTorch());
+            }
+            return source;
+        }
 
+        private void sendErrorEvent(String errorDescription) {
+            if (eventSink != null) {
+                Map<String, String> event = new HashMap<>();
+                event.put("eventType", "error");
+                event.put("errorDescription", errorDescription);
+                eventSink.success(event);
+            }
         }
 
         private void dispose() {
+            disposed = true;
+            readers.remove(textureEntry.id());
+            handler.removeCallbacks(metricsReporter);
+            handler.removeCallbacks(resultFlusher);
             textureEntry.release();
             if (preview != null) {
                 preview.stop();
@@ -0,0 +1,96 @@
+package dev.facundo.fastqrreaderview.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides when to switch the torch on and off from the brightness of the frames.
+ *
+ * <p>Auto-exposure keeps the mean luma of a reasonably lit scene near mid-grey, so a frame only
+ * comes out dark once exposure has run out of range. The torch goes on after {@link #DARK_FRAMES}
+ * frames in a row are dark, meaning both the mean and the 90th percentile are low, so a single
+ * bright label in a dark aisle doesn't count as light.
+ *
+ * <p>Once the torch is on, auto-exposure pulls the frames back to mid-grey whatever the ambient
+ * light, so they can't tell when the torch is no longer needed. Instead, every {@link
+ * #PROBE_INTERVAL_NS} the torch goes off for {@link #PROBE_FRAMES} frames, which gives exposure
+ * time to adapt to the ambient light alone. If the last of those frames is still dark the torch
+ * comes back on, otherwise it stays off. Frames that are bright even with the torch on, such as
+ * under direct sunlight, turn it off without waiting for a probe once it has been on for {@link
+ * #MIN_ON_NS}.
+ */
+public class AutoTorch {
+
+    /** {@link #onFrame} result: leave the torch as it is. */
+    public static final int UNCHANGED = 0;
+    /** {@link #onFrame} result: switch the torch on. */
+    public static final int TURN_ON = 1;
+    /** {@link #onFrame} result: switch the torch off. */
+    public static final int TURN_OFF = 2;
+
+    // Sample every 8th pixel of every 8th row: 14,400 reads for a 1280x720 frame.
+    private static final int SAMPLE_STEP = 8;
+    private static final int DARK_MEAN = 40;
+    private static final int DARK_P90 = 80;
+    private static final int BRIGHT_MEAN = 150;
+    private static final int DARK_FRAMES = 15;
+    private static final int BRIGHT_FRAMES = 30;
+    // Gives exposure time to settle after the torch goes on, before bright frames can turn it off.
+    private static final long MIN_ON_NS = 2_000_000_000L;
+    private static final long PROBE_INTERVAL_NS = 10_000_000_000L;
+    // About a third of a second at 30 fps.
+    private static final int PROBE_FRAMES = 10;
+
+    private final LuminanceMeter meter = new LuminanceMeter(SAMPLE_STEP);
+
+    // Only touched by the camera thread calling onFrame().
+    private boolean torchOn;
+    private long torchOnNanos;
+    private int darkFrames;
+    private int brightFrames;
+    // Frames left in the current probe, or 0 when not probing.
+    private int probeFrames;
+
+    /**
+     * Measures one frame's luma plane and returns whether the torch should change, one of {@link
+     * #UNCHANGED}, {@link #TURN_ON} or {@link #TURN_OFF}. See {@link LuminanceMeter#measure} for the
+     * plane layout.
+     *
+     * @param frameNanos System.nanoTime() when the frame was captured
+     */
+    public int onFrame(ByteBuffer luma, int width, int height, int rowStride, int pixelStride, long frameNanos) {
+        meter.measure(luma, width, height, rowStride, pixelStride);
+        int mean = meter.getMean();
+        boolean dark = mean < DARK_MEAN && meter.getPercentile(90) < DARK_P90;
+
+        if (probeFrames > 0) {
+            // Only the last probe frame counts; the earlier ones still show exposure adapting.
+            return --probeFrames > 0 || !dark ? UNCHANGED : turnOn(frameNanos);
+        }
+
+        if (!torchOn) {
+            darkFrames = dark ? darkFrames + 1 : 0;
+            return darkFrames < DARK_FRAMES ? UNCHANGED : turnOn(frameNanos);
+        }
+
+        brightFrames = mean > BRIGHT_MEAN ? brightFrames + 1 : 0;
+        if (brightFrames >= BRIGHT_FRAMES && frameNanos - torchOnNanos >= MIN_ON_NS) {
+            torchOn = false;
+            brightFrames = 0;
+            return TURN_OFF;
+        }
+        if (frameNanos - torchOnNanos < PROBE_INTERVAL_NS) {
+            return UNCHANGED;
+        }
+        torchOn = false;
+        brightFrames = 0;
+        probeFrames = PROBE_FRAMES;
+        return TURN_OFF;
+    }
+
+    private int turnOn(long frameNanos) {
+        torchOn = true;
+        torchOnNanos = frameNanos;
+        darkFrames = 0;
+        return TURN_ON;
+    }
+}
@@ -0,0 +1,758 @@
+package dev.facundo.fastqrreaderview.common;
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.MeteringRectangle;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+import android.view.WindowManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresPermission;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * {@link CameraSource} backed by the camera2 API. Frames are delivered by an {@link ImageReader} in
+ * YUV_420_888 and handed straight to {@link VisionImageProcessor#process(ImageLease, int)}, so
+ * there is no NV21 copy and no fixed set of callback buffers between the camera and the detector.
+ *
+ * <p>The legacy {@link CameraSource} remains the fallback for devices whose camera2 support is
+ * {@link CameraMetadata#INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY} or which fail to open here.
+ */
+public class Camera2Source extends CameraSource {
+
+    private static final String TAG = "MIDemoApp:Camera2Source";
+
+    private static final long OPEN_TIMEOUT_MS = 2500;
+    // How often start() checks on the camera while waiting for it without the lock.
+    private static final long OPEN_POLL_MS = 10;
+
+    // Images the reader needs besides those held by the frame processor: one to acquire the latest
+    // frame into and one for the camera to fill.
+    private static final int EXTRA_IMAGES = 2;
+
+    private final CameraManager cameraManager;
+    private final String cameraId;
+
+    private HandlerThread backgroundThread;
+    private Handler backgroundHandler;
+
+    // The start() waiting for the camera, which gives up the lock meanwhile. stop() clears it to
+    // make that start() give up.
+    @Nullable
+    private OpenAttempt pendingAttempt;
+    private CameraDevice cameraDevice;
+    private CameraCaptureSession captureSession;
+    private CaptureRequest.Builder requestBuilder;
+    private ImageLease.Reader imageReader;
+    private Surface previewSurface;
+
+    private boolean torchOn;
+
+    // Frame rate ranges auto-exposure accepts, and the one currently requested.
+    @Nullable
+    private Range<Integer>[] availableFpsRanges;
+    @Nullable
+    private Range<Integer> fpsRange;
+
+    // Sensor area that metering regions are relative to, and how many regions the camera accepts.
+    @Nullable
+    private Rect activeArray;
+    private int maxAfRegions;
+    private int maxAeRegions;
+    private float maxDigitalZoom = 1.0f;
+
+    public Camera2Source(Activity activity, String cameraId) {
+        super(activity);
+        this.cameraManager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
+        this.cameraId = cameraId;
+    }
+
+    /**
+     * Returns whether the given camera has camera2 support beyond the legacy HAL shim. Legacy
+     * devices are better served by {@link CameraSource}.
+     */
+    public static boolean isSupported(CameraCharacteristics characteristics) {
+        Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+        return level != null && level != CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+    }
+
+    /**
+     * Opens the camera and starts sending frames to the underlying detector. The frames are not
+     * displayed.
+     *
+     * @throws IOException if the camera could not be opened
+     */
+    @Override
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public synchronized CameraSource start() throws IOException {
+        return start(null);
+    }
+
+    /**
+     * Opens the camera and starts sending frames to the underlying detector. The supplied surface
+     * texture receives the same stream so it can be displayed to the user.
+     *
+     * @param surfaceTexture the texture to use for the preview frames, or null for no preview
+     * @throws IOException if the camera could not be opened
+     */
+    @Override
+    @SuppressLint("MissingPermission")
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public synchronized CameraSource start(@Nullable SurfaceTexture surfaceTexture) throws IOException {
+        if (cameraDevice != null || pendingAttempt != null) {
+            return this;
+        }
+
+        CameraCharacteristics characteristics;
+        try {
+            characteristics = cameraManager.getCameraCharacteristics(cameraId);
+        } catch (CameraAccessException e) {
+            throw new IOException("Could not read camera characteristics.", e);
+        }
+
+        previewSize = selectSize(characteristics);
+        if (previewSize == null) {
+            throw new IOException("Could not find suitable preview size.");
+        }
+        Log.v(TAG, "Camera preview size: " + previewSize);
+        rotationDegrees = computeRotation(characteristics);
+        availableFpsRanges =
+                characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        FrameRateGovernor governor = frameRateGovernor;
+        fpsRange = selectFpsRange(governor != null ? governor.getTargetFps() : REQUESTED_FPS);
+        activeArray = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        Integer afRegions = characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AF);
+        Integer aeRegions = characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AE);
+        maxAfRegions = afRegions != null ? afRegions : 0;
+        maxAeRegions = aeRegions != null ? aeRegions : 0;
+        Float maxZoom = characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+        maxDigitalZoom = maxZoom != null ? Math.max(1.0f, maxZoom) : 1.0f;
+
+        backgroundThread = new HandlerThread("Camera2Source");
+        backgroundThread.start();
+        backgroundHandler = new Handler(backgroundThread.getLooper());
+
+        OpenAttempt attempt = new OpenAttempt(backgroundThread);
+        pendingAttempt = attempt;
+        try {
+            cameraManager.openCamera(cameraId, attempt.deviceCallback, backgroundHandler);
+        } catch (CameraAccessException e) {
+            pendingAttempt = null;
+            stopBackgroundThread();
+            throw new IOException("Could not open camera " + cameraId + ".", e);
+        }
+        boolean openedInTime;
+        try {
+            openedInTime = awaitUnlocked(attempt, attempt.opened);
+        } catch (InterruptedException e) {
+            stop();
+            throw new IOException("Interrupted while opening camera " + cameraId + ".", e);
+        }
+        if (!openedInTime) {
+            stop();
+            throw new IOException("Timed out opening camera " + cameraId + ".");
+        }
+        synchronized (attempt) {
+            cameraDevice = attempt.device;
+        }
+        if (cameraDevice == null) {
+            // The camera failed to open; nothing is left on the background thread.
+            pendingAttempt = null;
+            stopBackgroundThread();
+            throw new IOException("Could not open camera " + cameraId + ".");
+        }
+
+        int maxImages = EXTRA_IMAGES + 1;
+        synchronized (processorLock) {
+            if (frameProcessor != null) {
+                maxImages = EXTRA_IMAGES + frameProcessor.getMaxFramesHeld();
+            }
+        }
+        imageReader = new ImageLease.Reader(ImageReader.newInstance(
+                previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, maxImages));
+        imageReader.getImageReader().setOnImageAvailableListener(
+                new ImageAvailableListener(imageReader), backgroundHandler);
+
+        List<Surface> surfaces = new ArrayList<>();
+        surfaces.add(imageReader.getImageReader().getSurface());
+        if (surfaceTexture != null) {
+            surfaceTexture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
+            previewSurface = new Surface(surfaceTexture);
+            surfaces.add(previewSurface);
+        }
+
+        try {
+            requestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            for (Surface surface : surfaces) {
+                requestBuilder.addTarget(surface);
+            }
+            requestBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+            requestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON);
+            requestBuilder.set(
+                    CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+            requestBuilder.set(CaptureRequest.FLASH_MODE, torchOn
+                    ? CameraMetadata.FLASH_MODE_TORCH
+                    : CameraMetadata.FLASH_MODE_OFF);
+            if (zoomRatio > 1.0f && activeArray != null) {
+                requestBuilder.set(CaptureRequest.SCALER_CROP_REGION, getStreamRegion());
+            }
+            if (focusArea != null) {
+                applyFocusArea();
+            }
+            if (fpsRange != null) {
+                requestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+                if (governor != null) {
+                    governor.setCameraFps(fpsRange.getUpper());
+                }
+            }
+
+            cameraDevice.createCaptureSession(surfaces, attempt.sessionCallback, backgroundHandler);
+        } catch (CameraAccessException e) {
+            stop();
+            throw new IOException("Could not start capture session.", e);
+        }
+        // Waiting here lets a session that fails to configure surface as an IOException, which is
+        // what makes the plugin fall back to the legacy camera.
+        boolean configuredInTime;
+        try {
+            configuredInTime = awaitUnlocked(attempt, attempt.configured);
+        } catch (InterruptedException e) {
+            stop();
+            throw new IOException("Interrupted while configuring camera " + cameraId + ".", e);
+        }
+        if (!configuredInTime) {
+            stop();
+            throw new IOException("Timed out configuring capture session for camera " + cameraId + ".");
+        }
+        synchronized (attempt) {
+            captureSession = attempt.session;
+        }
+        pendingAttempt = null;
+        if (captureSession == null) {
+            stop();
+            throw new IOException("Could not configure capture session for camera " + cameraId + ".");
+        }
+        updateRepeatingRequest();
+        return this;
+    }
+
+    /**
+     * Waits up to {@link #OPEN_TIMEOUT_MS} for {@code latch} with the source's lock given up, so the
+     * main thread can keep changing the torch, focus or zoom meanwhile, or stop the source. Returns
+     * false on timeout.
+     *
+     * @throws IOException if {@link #stop()} ran meanwhile, which already gave up on the attempt
+     */
+    private boolean awaitUnlocked(OpenAttempt attempt, CountDownLatch latch)
+            throws IOException, InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + OPEN_TIMEOUT_MS;
+        while (latch.getCount() > 0 && pendingAttempt == attempt) {
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            if (remaining <= 0) {
+                break;
+            }
+            // The callbacks can't take the lock to notify, see OpenAttempt, so poll.
+            wait(Math.min(remaining, OPEN_POLL_MS));
+        }
+        if (pendingAttempt != attempt) {
+            throw new IOException("Camera " + cameraId + " was closed while opening.");
+        }
+        return latch.getCount() == 0;
+    }
+
+    /**
+     * Gives up on a camera that has not opened yet. It may still open later; the attempt then
+     * closes it and ends the background thread, which is left running for that.
+     */
+    private void abandonOpen(OpenAttempt attempt) {
+        CameraDevice late;
+        synchronized (attempt) {
+            attempt.abandoned = true;
+            late = attempt.device;
+        }
+        if (late != null) {
+            late.close();
+            stopBackgroundThread();
+        } else {
+            backgroundThread = null;
+            backgroundHandler = null;
+        }
+    }
+
+    /** Gives up on a capture session that has not been configured yet. */
+    private void abandonSession(OpenAttempt attempt) {
+        CameraCaptureSession late;
+        synchronized (attempt) {
+            attempt.abandoned = true;
+            late = attempt.session;
+        }
+        if (late != null) {
+            late.close();
+        }
+    }
+
+    /**
+     * Hands the camera device and capture session of one {@link #start} to it. stop() joins the
+     * background thread holding the source's lock, so the callbacks must not take it; whatever
+     * they deliver after start() gave up is closed right away.
+     */
+    private final class OpenAttempt {
+        final CountDownLatch opened = new CountDownLatch(1);
+        final CountDownLatch configured = new CountDownLatch(1);
+        private final HandlerThread thread;
+        // Guarded by this.
+        CameraDevice device;
+        CameraCaptureSession session;
+        boolean abandoned;
+
+        OpenAttempt(HandlerThread thread) {
+            this.thread = thread;
+        }
+
+        final CameraDevice.StateCallback deviceCallback = new CameraDevice.StateCallback() {
+            @Override
+            public void onOpened(@NonNull CameraDevice camera) {
+                synchronized (OpenAttempt.this) {
+                    if (abandoned) {
+                        camera.close();
+                        thread.quitSafely();
+                        return;
+                    }
+                    device = camera;
+                }
+                opened.countDown();
+            }
+
+            @Override
+            public void onDisconnected(@NonNull CameraDevice camera) {
+                Log.w(TAG, "Camera " + cameraId + " disconnected");
+                onClosed(camera);
+            }
+
+            @Override
+            public void onError(@NonNull CameraDevice camera, int error) {
+                Log.e(TAG, "Camera " + cameraId + " error: " + error);
+                onClosed(camera);
+            }
+        };
+
+        final CameraCaptureSession.StateCallback sessionCallback = new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(@NonNull CameraCaptureSession configuredSession) {
+                synchronized (OpenAttempt.this) {
+                    if (abandoned) {
+                        configuredSession.close();
+                        return;
+                    }
+                    session = configuredSession;
+                }
+                configured.countDown();
+            }
+
+            @Override
+            public void onConfigureFailed(@NonNull CameraCaptureSession failedSession) {
+                Log.e(TAG, "Failed to configure capture session for camera " + cameraId);
+                configured.countDown();
+            }
+        };
+
+        private void onClosed(final CameraDevice camera) {
+            camera.close();
+            boolean wasOpen;
+            synchronized (this) {
+                wasOpen = device != null;
+                if (abandoned && !wasOpen) {
+                    thread.quitSafely();
+                }
+            }
+            opened.countDown();
+            configured.countDown();
+            if (wasOpen) {
+                // The camera went away while in use. stop() joins this thread, so clear the
+                // source's state from the main thread.
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (Camera2Source.this) {
+                            if (cameraDevice == camera) {
+                                stop();
+                            }
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Besides skipping frames, the camera2 backend follows the governor's target by lowering the
+     * auto-exposure frame rate range, so the sensor stops producing frames that would be dropped.
+     */
+    @Override
+    public void setFrameRateGovernor(@Nullable FrameRateGovernor governor) {
+        FrameRateGovernor previous = frameRateGovernor;
+        if (previous != null) {
+            previous.setListener(null);
+        }
+        super.setFrameRateGovernor(governor);
+        if (governor != null) {
+            governor.setListener(new FrameRateGovernor.Listener() {
+                @Override
+                public void onTargetFpsChanged(float targetFps) {
+                    applyTargetFps(targetFps);
+                }
+            });
+        }
+    }
+
+    /**
+     * Closes the camera and stops sending frames to the underlying frame detector.
+     */
+    @Override
+    public synchronized void stop() {
+        OpenAttempt attempt = pendingAttempt;
+        if (attempt != null) {
+            pendingAttempt = null;
+            if (cameraDevice == null) {
+                abandonOpen(attempt);
+            } else {
+                abandonSession(attempt);
+            }
+        }
+        if (captureSession != null) {
+            captureSession.close();
+            captureSession = null;
+        }
+        if (cameraDevice != null) {
+            cameraDevice.close();
+            cameraDevice = null;
+        }
+        if (imageReader != null) {
+            // The frame processor may still be detecting in images from this reader; closing it
+            // would free their planes under ML Kit, so it closes after the last of them.
+            imageReader.getImageReader().setOnImageAvailableListener(null, null);
+            imageReader.close();
+            imageReader = null;
+        }
+        if (previewSurface != null) {
+            previewSurface.release();
+            previewSurface = null;
+        }
+        requestBuilder = null;
+        stopBackgroundThread();
+    }
+
+    @Override
+    public synchronized void toggleFlash() {
+        setTorch(!torchOn);
+    }
+
+    @Override
+    public synchronized boolean isTorchOn() {
+        return torchOn;
+    }
+
+    /**
+     * Switches the torch through the repeating request's flash mode, which takes effect on the next
+     * frame without reconfiguring the session.
+     */
+    @Override
+    public synchronized void setTorch(boolean on) {
+        torchOn = on;
+        if (requestBuilder != null) {
+            requestBuilder.set(CaptureRequest.FLASH_MODE, torchOn
+                    ? CameraMetadata.FLASH_MODE_TORCH
+                    : CameraMetadata.FLASH_MODE_OFF);
+            updateRepeatingRequest();
+        }
+    }
+
+    /**
+     * Sets the autofocus and auto-exposure regions of the repeating request. The continuous
+     * autofocus mode picks them up without a trigger.
+     */
+    @Override
+    public synchronized void setFocusArea(@Nullable Rect area) {
+        focusArea = area != null ? new Rect(area) : null;
+        if (requestBuilder != null && applyFocusArea()) {
+            updateRepeatingRequest();
+        }
+    }
+
+    /**
+     * Writes {@link #focusArea} into {@link #requestBuilder}. Returns false if the camera supports
+     * no regions.
+     */
+    private boolean applyFocusArea() {
+        if (activeArray == null || (maxAfRegions == 0 && maxAeRegions == 0)) {
+            return false;
+        }
+        MeteringRectangle[] regions = null;
+        if (focusArea != null) {
+            regions = new MeteringRectangle[]{
+                    new MeteringRectangle(toActiveArray(focusArea), MeteringRectangle.METERING_WEIGHT_MAX)};
+        }
+        if (maxAfRegions > 0) {
+            requestBuilder.set(CaptureRequest.CONTROL_AF_REGIONS, regions);
+        }
+        if (maxAeRegions > 0) {
+            requestBuilder.set(CaptureRequest.CONTROL_AE_REGIONS, regions);
+        }
+        return true;
+    }
+
+    /**
+     * Maps a rectangle in stream pixels to active array coordinates. The stream shows the active
+     * array scaled down and, if the aspect ratios differ, center-cropped.
+     */
+    private Rect toActiveArray(Rect rect) {
+        Rect region = getStreamRegion();
+        int width = previewSize.getWidth();
+        int height = previewSize.getHeight();
+        float scale = Math.min((float) region.width() / width, (float) region.height() / height);
+        int offsetX = region.left + (int) ((region.width() - width * scale) / 2);
+        int offsetY = region.top + (int) ((region.height() - height * scale) / 2);
+        return new Rect(
+                offsetX + (int) (rect.left * scale),
+                offsetY + (int) (rect.top * scale),
+                offsetX + (int) (rect.right * scale),
+                offsetY + (int) (rect.bottom * scale));
+    }
+
+    /**
+     * Zooms by cropping the sensor readout around its center through the repeating request's
+     * SCALER_CROP_REGION. Returns the ratio applied, limited by the camera's maximum digital zoom.
+     * Any ratio can be applied, so {@code maxRatio} doesn't come into play.
+     */
+    @Override
+    public synchronized float setZoomRatio(float ratio, float maxRatio) {
+        zoomRatio = Math.max(1.0f, Math.min(ratio, maxDigitalZoom));
+        if (requestBuilder == null || activeArray == null) {
+            return zoomRatio;
+        }
+        requestBuilder.set(CaptureRequest.SCALER_CROP_REGION, getStreamRegion());
+        // Regions are in active array coordinates, so they move with the crop.
+        if (focusArea != null) {
+            applyFocusArea();
+        }
+        updateRepeatingRequest();
+        return zoomRatio;
+    }
+
+    @Override
+    public synchronized float resolveZoomRatio(float ratio, float maxRatio) {
+        return Math.max(1.0f, Math.min(ratio, maxDigitalZoom));
+    }
+
+    /**
+     * Returns the part of the sensor the stream is produced from, in active array coordinates: the
+     * whole array, or its center when zoomed.
+     */
+    private Rect getStreamRegion() {
+        int width = (int) (activeArray.width() / zoomRatio);
+        int height = (int) (activeArray.height() / zoomRatio);
+        int left = (activeArray.width() - width) / 2;
+        int top = (activeArray.height() - height) / 2;
+        return new Rect(left, top, left + width, top + height);
+    }
+
+    private synchronized void applyTargetFps(float targetFps) {
+        Range<Integer> range = selectFpsRange(targetFps);
+        if (range == null || range.equals(fpsRange)) {
+            return;
+        }
+        fpsRange = range;
+        if (requestBuilder != null) {
+            Log.v(TAG, "Camera fps range: " + range);
+            requestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, range);
+            updateRepeatingRequest();
+        }
+    }
+
+    /**
+     * Selects the auto-exposure range with the lowest upper bound that still reaches {@code
+     * targetFps}, preferring the widest such range so exposure can stretch in low light. Falls back
+     * to the fastest range if none reaches the target.
+     */
+    @Nullable
+    private Range<Integer> selectFpsRange(float targetFps) {
+        if (availableFpsRanges == null) {
+            return null;
+        }
+        Range<Integer> selected = null;
+        Range<Integer> fastest = null;
+        for (Range<Integer> range : availableFpsRanges) {
+            if (fastest == null || range.getUpper() > fastest.getUpper()) {
+                fastest = range;
+            }
+            if (range.getUpper() < targetFps) {
+                continue;
+            }
+            if (selected == null
+                    || range.getUpper() < selected.getUpper()
+                    || (range.getUpper().equals(selected.getUpper())
+                            && range.getLower() < selected.getLower())) {
+                selected = range;
+            }
+        }
+        return selected != null ? selected : fastest;
+    }
+
+    /**
+     * Re-submits the repeating request after {@link #requestBuilder} changed. Must be called while
+     * holding the lock on this instance.
+     */
+    private void updateRepeatingRequest() {
+        if (captureSession == null || requestBuilder == null) {
+            return;
+        }
+        try {
+            captureSession.setRepeatingRequest(requestBuilder.build(), null, backgroundHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Failed to update repeating request: " + e);
+        }
+    }
+
+    private void stopBackgroundThread() {
+        if (backgroundThread == null) {
+            return;
+        }
+        backgroundThread.quitSafely();
+        try {
+            backgroundThread.join();
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Camera background thread interrupted on stop.");
+        }
+        backgroundThread = null;
+        backgroundHandler = null;
+    }
+
+    /**
+     * Selects the YUV_420_888 output size closest to the requested preview size, using the same
+     * metric as {@link CameraSource#selectSizePair}.
+     */
+    @Nullable
+    private Size selectSize(CameraCharacteristics characteristics) {
+        StreamConfigurationMap map =
+                characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map == null) {
+            return null;
+        }
+        android.util.Size selected = null;
+        int minDiff = Integer.MAX_VALUE;
+        for (android.util.Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+            int diff = Math.abs(size.getWidth() - requestedPreviewWidth)
+                    + Math.abs(size.getHeight() - requestedPreviewHeight);
+            if (diff < minDiff) {
+                selected = size;
+                minDiff = diff;
+            }
+        }
+        return selected != null ? new Size(selected.getWidth(), selected.getHeight()) : null;
+    }
+
+    /**
+     * Computes the rotation to apply to sensor frames so they are upright for the current display
+     * rotation. Mirrors {@link CameraSource}'s handling of the legacy camera info.
+     */
+    private int computeRotation(CameraCharacteristics characteristics) {
+        WindowManager windowManager = (WindowManager) activity.getSystemService(Context.WINDOW_SERVICE);
+        int degrees = 0;
+        switch (windowManager.getDefaultDisplay().getRotation()) {
+            case Surface.ROTATION_90:
+                degrees = 90;
+                break;
+            case Surface.ROTATION_180:
+                degrees = 180;
+                break;
+            case Surface.ROTATION_270:
+                degrees = 270;
+                break;
+        }
+
+        Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        int orientation = sensorOrientation != null ? sensorOrientation : 0;
+        Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        if (lensFacing != null && lensFacing == CameraMetadata.LENS_FACING_FRONT) {
+            return (orientation + degrees) % 360;
+        }
+        return (orientation - degrees + 360) % 360;
+    }
+
+    /**
+     * Hands every new image to the frame processor, which owns it from then on and closes its lease
+     * once detection is done or the frame is skipped.
+     */
+    private class ImageAvailableListener implements ImageReader.OnImageAvailableListener {
+        private final ImageLease.Reader images;
+
+        ImageAvailableListener(ImageLease.Reader images) {
+            this.images = images;
+        }
+
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image;
+            try {
+                image = reader.acquireLatestImage();
+            } catch (IllegalStateException e) {
+                // All images are still held by the detector; the camera will deliver a newer one.
+                return;
+            }
+            if (image == null) {
+                return;
+            }
+
+            if (autoTorch != null) {
+                Image.Plane luma = image.getPlanes()[0];
+                updateAutoTorch(luma.getBuffer(), image.getWidth(), image.getHeight(),
+                        luma.getRowStride(), luma.getPixelStride(), image.getTimestamp());
+            }
+
+            FrameRateGovernor governor = frameRateGovernor;
+            if (governor != null && !governor.shouldProcessFrame(image.getTimestamp())) {
+                image.close();
+                return;
+            }
+
+            synchronized (processorLock) {
+                if (frameProcessor == null) {
+                    image.close();
+                    return;
+                }
+                try {
+                    frameProcessor.process(images.lease(image), rotationDegrees);
+                } catch (Exception t) {
+                    Log.e(TAG, "Exception thrown from receiver.", t);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package dev.facundo.fastqrreaderview.common;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.common.images.Size;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers what each camera supports across app launches, so opening the scanner doesn't query
+ * the same hardware again every time.
+ *
+ * <p>Entries are kept in a shared preferences file of their own, which is read on first use and
+ * written in the background. The file is cleared whenever {@link Build#FINGERPRINT} changes, since
+ * a system update can change what the camera HAL reports. External cameras are never cached, as
+ * their ids are reused for whatever gets plugged in next.
+ */
+public class CameraCapabilityCache {
+
+    private static final String TAG = "CameraCapabilityCache";
+
+    private static final String PREFERENCES_NAME = "dev.facundo.fastqrreaderview.camera_capabilities";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String CAMERA2_PREFIX = "camera2.";
+    private static final String LEGACY_PREFIX = "legacy.";
+
+    private static CameraCapabilityCache instance;
+
+    private final Context context;
+    // Read on first use. Guarded by this.
+    @Nullable
+    private SharedPreferences preferences;
+    private final Map<String, Camera2Capabilities> camera2Capabilities = new HashMap<>();
+    private final SparseArray<LegacyCapabilities> legacyCapabilities = new SparseArray<>();
+
+    /** What the plugin needs to know about a camera from the camera2 API. */
+    public static class Camera2Capabilities {
+        /** One of the {@code CameraMetadata.LENS_FACING_*} constants, or -1 if unknown. */
+        public final int lensFacing;
+        public final int sensorOrientation;
+        /** See {@link Camera2Source#isSupported}. */
+        public final boolean camera2Supported;
+        public final android.util.Size[] yuvSizes;
+        public final android.util.Size[] textureSizes;
+
+        Camera2Capabilities(int lensFacing, int sensorOrientation, boolean camera2Supported,
+                            android.util.Size[] yuvSizes, android.util.Size[] textureSizes) {
+            this.lensFacing = lensFacing;
+            this.sensorOrientation = sensorOrientation;
+            this.camera2Supported = camera2Supported;
+            this.yuvSizes = yuvSizes;
+            this.textureSizes = textureSizes;
+        }
+    }
+
+    /** What {@link CameraSource} needs to know about a camera from the legacy API. */
+    public static class LegacyCapabilities {
+        public final List<Size> previewSizes;
+        public final List<Size> pictureSizes;
+        /** Ranges as {@code Camera.Parameters.getSupportedPreviewFpsRange()} returns them. */
+        public final List<int[]> previewFpsRanges;
+
+        LegacyCapabilities(List<Size> previewSizes, List<Size> pictureSizes, List<int[]> previewFpsRanges) {
+            this.previewSizes = previewSizes;
+            this.pictureSizes = pictureSizes;
+            this.previewFpsRanges = previewFpsRanges;
+        }
+    }
+
+    public static synchronized CameraCapabilityCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new CameraCapabilityCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private CameraCapabilityCache(Context context) {
+        this.context = context;
+    }
+
+    /** Returns the capabilities of a camera2 camera, querying the camera manager on a miss only. */
+    public synchronized Camera2Capabilities getCamera2Capabilities(CameraManager cameraManager, String cameraId)
+            throws CameraAccessException {
+        Camera2Capabilities capabilities = camera2Capabilities.get(cameraId);
+        if (capabilities != null) {
+            return capabilities;
+        }
+        String key = CAMERA2_PREFIX + cameraId;
+        capabilities = decodeCamera2(getPreferences().getString(key, null));
+        if (capabilities == null) {
+            capabilities = queryCamera2(cameraManager.getCameraCharacteristics(cameraId));
+            if (capabilities.lensFacing == CameraMetadata.LENS_FACING_EXTERNAL) {
+                return capabilities;
+            }
+            getPreferences().edit().putString(key, encodeCamera2(capabilities)).apply();
+        }
+        camera2Capabilities.put(cameraId, capabilities);
+        return capabilities;
+    }
+
+    /**
+     * Returns the capabilities of a legacy camera. {@code camera} must be that camera, opened; its
+     * parameters are only read on a miss.
+     */
+    public synchronized LegacyCapabilities getLegacyCapabilities(int cameraId, Camera camera) {
+        LegacyCapabilities capabilities = legacyCapabilities.get(cameraId);
+        if (capabilities != null) {
+            return capabilities;
+        }
+        String key = LEGACY_PREFIX + cameraId;
+        capabilities = decodeLegacy(getPreferences().getString(key, null));
+        if (capabilities == null) {
+            capabilities = queryLegacy(camera.getParameters());
+            getPreferences().edit().putString(key, encodeLegacy(capabilities)).apply();
+        }
+        legacyCapabilities.put(cameraId, capabilities);
+        return capabilities;
+    }
+
+    private SharedPreferences getPreferences() {
+        if (preferences == null) {
+            preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+            if (!Build.FINGERPRINT.equals(preferences.getString(KEY_FINGERPRINT, null))) {
+                preferences.edit().clear().putString(KEY_FINGERPRINT, Build.FINGERPRINT).apply();
+            }
+        }
+        return preferences;
+    }
+
+    private static Camera2Capabilities queryCamera2(CameraCharacteristics characteristics) {
+        Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        android.util.Size[] yuvSizes = map != null ? map.getOutputSizes(ImageFormat.YUV_420_888) : null;
+        android.util.Size[] textureSizes = map != null ? map.getOutputSizes(SurfaceTexture.class) : null;
+        return new Camera2Capabilities(
+                lensFacing != null ? lensFacing : -1,
+                sensorOrientation != null ? sensorOrientation : 0,
+                Camera2Source.isSupported(characteristics),
+                yuvSizes != null ? yuvSizes : new android.util.Size[0],
+                textureSizes != null ? textureSizes : new android.util.Size[0]);
+    }
+
+    private static LegacyCapabilities queryLegacy(Camera.Parameters parameters) {
+        return new LegacyCapabilities(
+                toSizes(parameters.getSupportedPreviewSizes()),
+                toSizes(parameters.getSupportedPictureSizes()),
+                new ArrayList<>(parameters.getSupportedPreviewFpsRange()));
+    }
+
+    private static List<Size> toSizes(List<Camera.Size> cameraSizes) {
+        List<Size> sizes = new ArrayList<>(cameraSizes.size());
+        for (Camera.Size size : cameraSizes) {
+            sizes.add(new Size(size.width, size.height));
+        }
+        return sizes;
+    }
+
+    // Entries are fields separated by ';', with lists separated by ',' and sizes written as WxH:
+    //
+    //   camera2: lensFacing;sensorOrientation;camera2Supported;yuvSizes;textureSizes
+    //   legacy:  previewSizes;pictureSizes;previewFpsRanges (as min-max)
+
+    private static String encodeCamera2(Camera2Capabilities capabilities) {
+        StringBuilder builder = new StringBuilder()
+                .append(capabilities.lensFacing).append(';')
+                .append(capabilities.sensorOrientation).append(';')
+                .append(capabilities.camera2Supported ? 1 : 0).append(';');
+        appendSizes(builder, capabilities.yuvSizes).append(';');
+        appendSizes(builder, capabilities.textureSizes);
+        return builder.toString();
+    }
+
+    @Nullable
+    private static Camera2Capabilities decodeCamera2(@Nullable String entry) {
+        if (entry == null) {
+            return null;
+        }
+        try {
+            String[] fields = entry.split(";", -1);
+            return new Camera2Capabilities(
+                    Integer.parseInt(fields[0]),
+                    Integer.parseInt(fields[1]),
+                    fields[2].equals("1"),
+                    parseCamera2Sizes(fields[3]),
+                    parseCamera2Sizes(fields[4]));
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Ignoring malformed camera2 entry: " + entry, e);
+            return null;
+        }
+    }
+
+    private static String encodeLegacy(LegacyCapabilities capabilities) {
+        StringBuilder builder = new StringBuilder();
+        appendSizes(builder, capabilities.previewSizes.toArray()).append(';');
+        appendSizes(builder, capabilities.pictureSizes.toArray()).append(';');
+        for (int i = 0; i < capabilities.previewFpsRanges.size(); i++) {
+            int[] range = capabilities.previewFpsRanges.get(i);
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX])
+                    .append('-')
+                    .append(range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        }
+        return builder.toString();
+    }
+
+    @Nullable
+    private static LegacyCapabilities decodeLegacy(@Nullable String entry) {
+        if (entry == null) {
+            return null;
+        }
+        try {
+            String[] fields = entry.split(";", -1);
+            List<Size> previewSizes = new ArrayList<>();
+            for (String size : splitList(fields[0])) {
+                previewSizes.add(Size.parseSize(size));
+            }
+            List<Size> pictureSizes = new ArrayList<>();
+            for (String size : splitList(fields[1])) {
+                pictureSizes.add(Size.parseSize(size));
+            }
+            List<int[]> fpsRanges = new ArrayList<>();
+            for (String range : splitList(fields[2])) {
+                String[] bounds = range.split("-");
+                int[] fpsRange = new int[2];
+                fpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] = Integer.parseInt(bounds[0]);
+                fpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] = Integer.parseInt(bounds[1]);
+                fpsRanges.add(fpsRange);
+            }
+            // The legacy API always reports at least one preview size and frame rate range.
+            if (previewSizes.isEmpty() || fpsRanges.isEmpty()) {
+                return null;
+            }
+            return new LegacyCapabilities(previewSizes, pictureSizes, fpsRanges);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Ignoring malformed legacy camera entry: " + entry, e);
+            return null;
+        }
+    }
+
+    /** Appends sizes of either Size class, whose toString() both give WxH. */
+    private static StringBuilder appendSizes(StringBuilder builder, Object[] sizes) {
+        for (int i = 0; i < sizes.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(sizes[i]);
+        }
+        return builder;
+    }
+
+    private static android.util.Size[] parseCamera2Sizes(String list) {
+        String[] items = splitList(list);
+        android.util.Size[] sizes = new android.util.Size[items.length];
+        for (int i = 0; i < items.length; i++) {
+            sizes[i] = android.util.Size.parseSize(items[i]);
+        }
+        return sizes;
+    }
+
+    private static String[] splitList(String list) {
+        return list.isEmpty() ? new String[0] : list.split(",");
+    }
+}
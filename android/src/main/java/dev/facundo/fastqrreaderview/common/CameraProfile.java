@@ -0,0 +1,77 @@
+package dev.facundo.fastqrreaderview.common;
+
+import android.hardware.Camera;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.common.images.Size;
+
+/**
+ * Preview size, picture size and preview frame rate range for the legacy camera, as picked by
+ * calibration.
+ */
+public class CameraProfile {
+
+    private static final String TAG = "CameraProfile";
+
+    public final Size previewSize;
+    /** Same aspect ratio as the preview, or null to leave the picture size alone. */
+    @Nullable
+    public final Size pictureSize;
+    /** Frame rates scaled by 1000, as the legacy camera API uses them. */
+    public final int minFps;
+    public final int maxFps;
+
+    public CameraProfile(Size previewSize, @Nullable Size pictureSize, int minFps, int maxFps) {
+        this.previewSize = previewSize;
+        this.pictureSize = pictureSize;
+        this.minFps = minFps;
+        this.maxFps = maxFps;
+    }
+
+    /** Returns whether the camera still offers this profile's preview size and frame rate range. */
+    public boolean isSupportedBy(CameraCapabilityCache.LegacyCapabilities capabilities) {
+        if (!capabilities.previewSizes.contains(previewSize)
+                || (pictureSize != null && !capabilities.pictureSizes.contains(pictureSize))) {
+            return false;
+        }
+        for (int[] range : capabilities.previewFpsRanges) {
+            if (range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] == minFps
+                    && range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] == maxFps) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the profile as {@code preview;picture;minFps-maxFps}, with an empty picture if none. */
+    public String encode() {
+        return previewSize + ";" + (pictureSize != null ? pictureSize : "") + ";" + minFps + "-" + maxFps;
+    }
+
+    /** Parses what {@link #encode()} returned, or returns null if {@code value} is null or malformed. */
+    @Nullable
+    public static CameraProfile parse(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            String[] fields = value.split(";", -1);
+            String[] fps = fields[2].split("-");
+            return new CameraProfile(
+                    Size.parseSize(fields[0]),
+                    fields[1].isEmpty() ? null : Size.parseSize(fields[1]),
+                    Integer.parseInt(fps[0]),
+                    Integer.parseInt(fps[1]));
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Ignoring malformed camera profile: " + value, e);
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
@@ -19,9 +19,12 @@ import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.Surface;
 import android.view.WindowManager;
@@ -34,7 +37,7 @@ import com.google.android.gms.common.images.Size;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.IdentityHashMap;
+import java.util.Collections;
 import java.util.List;
 
 import dev.facundo.fastqrreaderview.preference.PreferenceUtils;
@@ -74,16 +77,41 @@ public class CameraSource {
 
     private Camera camera;
 
-    private int facing = CAMERA_FACING_BACK;
+    // Parameters last applied to the camera, changed in place and re-applied instead of being read
+    // back from the camera service. Guarded by this instance's lock.
+    @Nullable
+    private Camera.Parameters parameters;
+    private boolean torchSupported;
+    private boolean torchOn;
+
+    // Area autofocus and auto-exposure should favour, in preview frame pixels, or null for the
+    // camera's default. Kept across restarts like the torch state.
+    @Nullable
+    protected Rect focusArea;
+
+    // Zoom ratio last applied, or requested while the camera is closed; 1 for none. Kept across
+    // restarts.
+    protected float zoomRatio = 1.0f;
+    // Zoom ratios the open camera offers, times 100, or null if it can't zoom.
+    @Nullable
+    private List<Integer> zoomRatios;
+
+    protected int facing = CAMERA_FACING_BACK;
 
     /**
      * Rotation of the device, and thus the associated preview images captured from the device.
      */
-    private int rotationDegrees;
+    protected int rotationDegrees;
+
+    protected Size previewSize;
 
-    private Size previewSize;
+    /**
+     * Preview size asked for by the caller. The closest size supported by the camera is used.
+     */
+    protected int requestedPreviewWidth = DEFAULT_REQUESTED_CAMERA_PREVIEW_WIDTH;
+    protected int requestedPreviewHeight = DEFAULT_REQUESTED_CAMERA_PREVIEW_HEIGHT;
 
-    private static final float REQUESTED_FPS = 30.0f;
+    protected static final float REQUESTED_FPS = 30.0f;
     private static final boolean REQUESTED_AUTO_FOCUS = true;
 
     // This instance needs to be held onto to avoid GC of its underlying resources. Even though it
@@ -98,20 +126,36 @@ public class CameraSource {
     private Thread processingThread;
 
     private final FrameProcessingRunnable processingRunnable;
-    private final Object processorLock = new Object();
+    protected final Object processorLock = new Object();
 
-    private VisionImageProcessor frameProcessor;
+    protected VisionImageProcessor frameProcessor;
+
+    @Nullable
+    protected volatile FrameRateGovernor frameRateGovernor;
 
     /**
-     * Map to convert between a byte array, received from the camera, and its associated byte buffer.
-     * We use byte buffers internally because this is a more efficient way to call into native code
-     * later (avoids a potential copy).
-     *
-     * <p><b>Note:</b> uses IdentityHashMap here instead of HashMap because the behavior of an array's
-     * equals, hashCode and toString methods is both useless and unexpected. IdentityHashMap enforces
-     * identity ('==') check on the keys.
+     * Preview buffers shared with the frame processor. Each one is handed out as a {@link
+     * FrameLease} and only goes back to the camera once every holder released it.
      */
-    private final IdentityHashMap<byte[], ByteBuffer> bytesToByteBuffer = new IdentityHashMap<>();
+    private volatile FramePool framePool;
+    // Pool of a suspended camera, reused by the next start if the preview size still fits.
+    @Nullable
+    private FramePool idleFramePool;
+
+    @Nullable
+    private CameraProfile requestedProfile;
+    private int cameraId = -1;
+    @Nullable
+    private CameraCapabilityCache.LegacyCapabilities capabilities;
+
+    // Number of preview buffers to allocate, or 0 to derive it from the frame processor.
+    private int frameBufferCount;
+
+    @Nullable
+    protected volatile AutoTorch autoTorch;
+    // Torch changes decided on a camera thread are applied here, since stop() holds this instance's
+    // lock while it waits for those threads to finish.
+    protected final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     public CameraSource(Activity activity) {
         this.activity = activity;
@@ -158,37 +202,202 @@ public class CameraSource {
         return this;
     }
 
-    @SuppressLint("MissingPermission")
-    @RequiresPermission(Manifest.permission.CAMERA)
-    public void toggleFlash() {
-        Camera.Parameters p = camera.getParameters();
+    /**
+     * Switches the torch to the opposite of its last requested state.
+     */
+    public synchronized void toggleFlash() {
+        setTorch(!torchOn);
+    }
+
+    /**
+     * Switches the torch on or off. The state is kept across restarts of the camera. Does nothing
+     * if the camera has no torch.
+     *
+     * <p>Only the flash mode of the cached parameters changes, so there is no round trip to read the
+     * parameters back and the preview keeps running.
+     */
+    public synchronized void setTorch(boolean on) {
+        torchOn = on;
+        if (camera == null || parameters == null || !torchSupported) {
+            return;
+        }
+        String mode = on ? Camera.Parameters.FLASH_MODE_TORCH : Camera.Parameters.FLASH_MODE_OFF;
+        String previousMode = parameters.getFlashMode();
+        if (mode.equals(previousMode)) {
+            return;
+        }
+        parameters.setFlashMode(mode);
+        try {
+            camera.setParameters(parameters);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to set flash mode " + mode, e);
+            // Keep the cached parameters matching the camera, or every later change would retry this.
+            parameters.setFlashMode(previousMode);
+        }
+    }
+
+    public synchronized boolean isTorchOn() {
+        return torchOn;
+    }
+
+    /**
+     * Points autofocus and auto-exposure at {@code area}, in unrotated preview frame pixels, or back
+     * at the whole scene for null. Ignored by cameras without focus or metering areas.
+     */
+    public synchronized void setFocusArea(@Nullable Rect area) {
+        focusArea = area != null ? new Rect(area) : null;
+        if (camera == null || parameters == null) {
+            return;
+        }
+        List<Camera.Area> previousFocusAreas = parameters.getFocusAreas();
+        List<Camera.Area> previousMeteringAreas = parameters.getMeteringAreas();
+        if (applyFocusArea(parameters)) {
+            try {
+                camera.setParameters(parameters);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to set focus area " + focusArea, e);
+                if (parameters.getMaxNumFocusAreas() > 0) {
+                    parameters.setFocusAreas(previousFocusAreas);
+                }
+                if (parameters.getMaxNumMeteringAreas() > 0) {
+                    parameters.setMeteringAreas(previousMeteringAreas);
+                }
+            }
+        }
+    }
 
-        if(p.getFlashMode() == Camera.Parameters.FLASH_MODE_ON){
-            p.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
+    /**
+     * Writes {@link #focusArea} into {@code parameters}. Returns false if the camera supports
+     * neither focus nor metering areas.
+     */
+    private boolean applyFocusArea(Camera.Parameters parameters) {
+        boolean focus = parameters.getMaxNumFocusAreas() > 0;
+        boolean metering = parameters.getMaxNumMeteringAreas() > 0;
+        if (!focus && !metering) {
+            return false;
         }
-        else if(p.getFlashMode() == Camera.Parameters.FLASH_MODE_OFF){
-            p.setFlashMode(Camera.Parameters.FLASH_MODE_TORCH);
+        List<Camera.Area> areas = null;
+        if (focusArea != null) {
+            // Camera areas span -1000 to 1000 across the field of view, in the sensor's orientation
+            // like the preview frames.
+            Rect rect = new Rect(
+                    toCameraAreaCoordinate(focusArea.left, previewSize.getWidth()),
+                    toCameraAreaCoordinate(focusArea.top, previewSize.getHeight()),
+                    toCameraAreaCoordinate(focusArea.right, previewSize.getWidth()),
+                    toCameraAreaCoordinate(focusArea.bottom, previewSize.getHeight()));
+            if (rect.isEmpty()) {
+                return false;
+            }
+            areas = Collections.singletonList(new Camera.Area(rect, 1000));
         }
-        else if(p.getFlashMode().equals("off")){
-            p.setFlashMode(Camera.Parameters.FLASH_MODE_TORCH);
+        if (focus) {
+            parameters.setFocusAreas(areas);
         }
-        else if(p.getFlashMode().equals("torch")){
-            p.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
+        if (metering) {
+            parameters.setMeteringAreas(areas);
         }
-        else if(p.getFlashMode() == Camera.Parameters.FLASH_MODE_AUTO){
-            p.setFlashMode(Camera.Parameters.FLASH_MODE_ON);
+        return true;
+    }
+
+    /**
+     * Zooms to the supported ratio closest to {@code ratio} from below and returns the ratio
+     * actually applied, 1 if the camera is closed or can't zoom.
+     */
+    public float setZoomRatio(float ratio) {
+        return setZoomRatio(ratio, ratio);
+    }
+
+    /**
+     * Zooms to a supported ratio close to {@code ratio} and returns the ratio actually applied, 1
+     * if the camera is closed or can't zoom. Zooming out goes to the closest ratio from below.
+     * Zooming in goes to the closest ratio from above unless that exceeds {@code maxRatio}, so
+     * cameras that only offer a few coarse ratios, such as 1x, 2x and 4x, still move on small
+     * steps. Changes only the zoom of the cached parameters, so the preview keeps running.
+     */
+    public synchronized float setZoomRatio(float ratio, float maxRatio) {
+        zoomRatio = Math.max(1.0f, ratio);
+        if (camera == null || parameters == null || zoomRatios == null) {
+            return 1.0f;
         }
-        else if(p.getFlashMode() == Camera.Parameters.FLASH_MODE_TORCH){
-            p.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
+        int previousIndex = parameters.getZoom();
+        int index = selectZoomIndex(zoomRatio, maxRatio);
+        if (index != previousIndex) {
+            parameters.setZoom(index);
+            try {
+                camera.setParameters(parameters);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to set zoom " + zoomRatio, e);
+                parameters.setZoom(previousIndex);
+            }
         }
-        else{
-            p.setFlashMode(Camera.Parameters.FLASH_MODE_AUTO);
+        zoomRatio = zoomRatios.get(parameters.getZoom()) / 100.0f;
+        return zoomRatio;
+    }
+
+    /**
+     * Returns the ratio {@link #setZoomRatio(float, float)} would apply for the same arguments right
+     * now, without zooming.
+     */
+    public synchronized float resolveZoomRatio(float ratio, float maxRatio) {
+        if (camera == null || parameters == null || zoomRatios == null) {
+            return 1.0f;
         }
+        return zoomRatios.get(selectZoomIndex(Math.max(1.0f, ratio), maxRatio)) / 100.0f;
+    }
 
-        camera.setParameters(p);
-        camera.startPreview();
+    /** Returns the index {@link #setZoomRatio(float, float)} zooms to from the current zoom. */
+    private int selectZoomIndex(float ratio, float maxRatio) {
+        int target = Math.round(ratio * 100);
+        int index = selectZoomIndex(ratio);
+        if (target > zoomRatios.get(parameters.getZoom()) && zoomRatios.get(index) < target
+                && index + 1 < zoomRatios.size() && zoomRatios.get(index + 1) <= Math.round(maxRatio * 100)) {
+            index++;
+        }
+        return index;
     }
 
+    /** Returns the index of the largest zoom ratio that doesn't exceed {@code ratio}. */
+    private int selectZoomIndex(float ratio) {
+        int target = Math.round(ratio * 100);
+        int index = 0;
+        for (int i = 1; i < zoomRatios.size() && zoomRatios.get(i) <= target; i++) {
+            index = i;
+        }
+        return index;
+    }
+
+    private static int toCameraAreaCoordinate(int pixel, int size) {
+        return Math.max(-1000, Math.min(1000, pixel * 2000 / size - 1000));
+    }
+
+    /**
+     * Lets {@code autoTorch} switch the torch from the brightness of the frames, or pass null to
+     * leave the torch alone.
+     */
+    public void setAutoTorch(@Nullable AutoTorch autoTorch) {
+        this.autoTorch = autoTorch;
+    }
+
+    /**
+     * Feeds a frame's luma plane to the auto torch, if any, and applies its decision on the main
+     * thread.
+     */
+    protected void updateAutoTorch(ByteBuffer luma, int width, int height, int rowStride, int pixelStride, long frameNanos) {
+        AutoTorch torch = autoTorch;
+        if (torch == null) {
+            return;
+        }
+        final int decision = torch.onFrame(luma, width, height, rowStride, pixelStride, frameNanos);
+        if (decision == AutoTorch.UNCHANGED) {
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                setTorch(decision == AutoTorch.TURN_ON);
+            }
+        });
+    }
 
     /**
      * Opens the camera and starts sending preview frames to the underlying detector. The supplied
@@ -223,6 +432,7 @@ public class CameraSource {
      * resources of the underlying detector.
      */
     public synchronized void stop() {
+        idleFramePool = null;
         processingRunnable.setActive(false);
         if (processingThread != null) {
             try {
@@ -236,6 +446,11 @@ public class CameraSource {
             processingThread = null;
         }
 
+        // Stop recycling buffers first, since the frame processor may still release leases into a
+        // camera that is about to be released.
+        if (framePool != null) {
+            framePool.close();
+        }
         if (camera != null) {
             camera.stopPreview();
             camera.setPreviewCallbackWithBuffer(null);
@@ -248,10 +463,23 @@ public class CameraSource {
             }
             camera.release();
             camera = null;
+            parameters = null;
         }
 
-        // Release the reference to any image buffers, since these will no longer be in use.
-        bytesToByteBuffer.clear();
+        // Release the reference to any image buffers, since these will no longer be in use. Leases
+        // still held by the frame processor are dropped when released.
+        framePool = null;
+    }
+
+    /**
+     * Closes the camera like {@link #stop()}, but keeps what a quick restart can reuse: the frame
+     * processor, and for the legacy camera the preview buffers. Meant for leaving the app briefly;
+     * {@link #start(SurfaceTexture)} opens the camera again.
+     */
+    public synchronized void suspend() {
+        FramePool pool = framePool;
+        stop();
+        idleFramePool = pool;
     }
 
     /**
@@ -264,6 +492,57 @@ public class CameraSource {
         this.facing = facing;
     }
 
+    /**
+     * Sets the preview size to request from the camera the next time it is opened. The closest
+     * supported size is used, see {@link #selectSizePair}.
+     */
+    public synchronized void setRequestedPreviewSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid preview size: " + width + "x" + height);
+        }
+        requestedPreviewWidth = width;
+        requestedPreviewHeight = height;
+    }
+
+    /**
+     * Uses exactly the given preview size and frame rate range the next time the camera is opened,
+     * instead of the requested preview size or a calibrated profile. Pass null to go back to those.
+     */
+    public synchronized void setProfile(@Nullable CameraProfile profile) {
+        requestedProfile = profile;
+    }
+
+    /** Returns the id of the camera last opened, or -1 if none was. */
+    public synchronized int getCameraId() {
+        return cameraId;
+    }
+
+    /** Returns what the camera last opened supports, or null if none was. */
+    @Nullable
+    public synchronized CameraCapabilityCache.LegacyCapabilities getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Sets the number of preview buffers to allocate the next time the camera is opened. Pass 0 to
+     * use enough buffers for what the frame processor holds plus what the camera needs to keep
+     * streaming; more buffers smooth over uneven detection times at the cost of memory.
+     */
+    public synchronized void setFrameBufferCount(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid frame buffer count: " + count);
+        }
+        frameBufferCount = count;
+    }
+
+    /**
+     * Lets {@code governor} decide which frames reach the frame processor. Frames it skips go
+     * straight back to the camera.
+     */
+    public void setFrameRateGovernor(@Nullable FrameRateGovernor governor) {
+        frameRateGovernor = governor;
+    }
+
     /**
      * Returns the preview size that is currently in use by the underlying camera.
      */
@@ -291,14 +570,36 @@ public class CameraSource {
             throw new IOException("Could not find requested camera.");
         }
         Camera camera = Camera.open(requestedCameraId);
+        CameraCapabilityCache.LegacyCapabilities capabilities =
+                CameraCapabilityCache.getInstance(activity).getLegacyCapabilities(requestedCameraId, camera);
+        cameraId = requestedCameraId;
+        this.capabilities = capabilities;
+
+        // A profile set for calibration comes first, then the one calibration picked for this
+        // device model. Either is skipped if the camera no longer offers it.
+        CameraProfile profile = requestedProfile;
+        if (profile == null) {
+            profile = PreferenceUtils.getCalibratedProfile(activity, requestedCameraId);
+        }
+        if (profile != null && !profile.isSupportedBy(capabilities)) {
+            Log.w(TAG, "Ignoring unsupported camera profile: " + profile);
+            profile = null;
+        }
 
-        SizePair sizePair = PreferenceUtils.getCameraPreviewSizePair(activity, requestedCameraId);
-        if (sizePair == null) {
+        SizePair sizePair;
+        int[] previewFpsRange;
+        if (profile != null) {
+            sizePair = new SizePair(profile.previewSize, profile.pictureSize);
+            previewFpsRange = new int[2];
+            previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] = profile.minFps;
+            previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] = profile.maxFps;
+        } else {
             sizePair =
                     selectSizePair(
-                            camera,
-                            DEFAULT_REQUESTED_CAMERA_PREVIEW_WIDTH,
-                            DEFAULT_REQUESTED_CAMERA_PREVIEW_HEIGHT);
+                            capabilities,
+                            requestedPreviewWidth,
+                            requestedPreviewHeight);
+            previewFpsRange = selectPreviewFpsRange(capabilities.previewFpsRanges, REQUESTED_FPS);
         }
 
         if (sizePair == null) {
@@ -308,11 +609,18 @@ public class CameraSource {
         previewSize = sizePair.preview;
         Log.v(TAG, "Camera preview size: " + previewSize);
 
-        int[] previewFpsRange = selectPreviewFpsRange(camera, REQUESTED_FPS);
         if (previewFpsRange == null) {
             throw new IOException("Could not find suitable preview frames per second range.");
         }
 
+        FrameRateGovernor governor = frameRateGovernor;
+        if (governor != null) {
+            // The legacy API can't change the frame rate without restarting the preview on many
+            // devices, so the governor only skips frames here. The range ceiling is just a first
+            // guess; the governor measures the real rate from the frames.
+            governor.setCameraFps(previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / 1000.0f);
+        }
+
         Camera.Parameters parameters = camera.getParameters();
 
         Size pictureSize = sizePair.picture;
@@ -339,24 +647,35 @@ public class CameraSource {
             }
         }
 
+        List<String> flashModes = parameters.getSupportedFlashModes();
+        torchSupported = flashModes != null && flashModes.contains(Camera.Parameters.FLASH_MODE_TORCH);
+        if (torchSupported && torchOn) {
+            parameters.setFlashMode(Camera.Parameters.FLASH_MODE_TORCH);
+        }
+        if (focusArea != null) {
+            applyFocusArea(parameters);
+        }
+        // Parsed once here; the parameters rebuild the list from a string on every call.
+        zoomRatios = parameters.isZoomSupported() ? parameters.getZoomRatios() : null;
+        if (zoomRatios != null && zoomRatio > 1.0f) {
+            parameters.setZoom(selectZoomIndex(zoomRatio));
+        }
+
         camera.setParameters(parameters);
+        this.parameters = parameters;
 
-        // Four frame buffers are needed for working with the camera:
+        // Frame buffers are needed for:
         //
-        //   one for the frame that is currently being executed upon in doing detection
-        //   one for the next pending frame to process immediately upon completing detection
+        //   the frames the frame processor holds on to, detecting or waiting for a slot
+        //   one for the next pending frame to hand to the processor
         //   two for the frames that the camera uses to populate future preview images
         //
-        // Through trial and error it appears that two free buffers, in addition to the two buffers
-        // used in this code, are needed for the camera to work properly.  Perhaps the camera has
-        // one thread for acquiring images, and another thread for calling into user code.  If only
-        // three buffers are used, then the camera will spew thousands of warning messages when
-        // detection takes a non-trivial amount of time.
+        // Through trial and error it appears that two free buffers are needed for the camera to
+        // work properly.  Perhaps the camera has one thread for acquiring images, and another
+        // thread for calling into user code.  With fewer, the camera will spew thousands of warning
+        // messages when detection takes a non-trivial amount of time.
         camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
+        framePool = createFramePool(camera, previewSize);
 
         return camera;
     }
@@ -386,13 +705,13 @@ public class CameraSource {
      * ratio. On some hardware, if you would only set the preview size, you will get a distorted
      * image.
      *
-     * @param camera        the camera to select a preview size from
+     * @param capabilities  the capabilities of the camera to select a preview size for
      * @param desiredWidth  the desired width of the camera preview frames
      * @param desiredHeight the desired height of the camera preview frames
      * @return the selected preview and picture size pair
      */
-    public static SizePair selectSizePair(Camera camera, int desiredWidth, int desiredHeight) {
-        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(camera);
+    public static SizePair selectSizePair(CameraCapabilityCache.LegacyCapabilities capabilities, int desiredWidth, int desiredHeight) {
+        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(capabilities);
 
         // The method for selecting the best size is to minimize the sum of the differences between
         // the desired values and the actual values for width and height.  This is certainly not the
@@ -424,11 +743,6 @@ public class CameraSource {
         @Nullable
         public final Size picture;
 
-        SizePair(Camera.Size previewSize, @Nullable Camera.Size pictureSize) {
-            preview = new Size(previewSize.width, previewSize.height);
-            picture = pictureSize != null ? new Size(pictureSize.width, pictureSize.height) : null;
-        }
-
         public SizePair(Size previewSize, @Nullable Size pictureSize) {
             preview = previewSize;
             picture = pictureSize;
@@ -444,19 +758,18 @@ public class CameraSource {
      * be set to a size that is the same aspect ratio as the preview size we choose. Otherwise, the
      * preview images may be distorted on some devices.
      */
-    public static List<SizePair> generateValidPreviewSizeList(Camera camera) {
-        Camera.Parameters parameters = camera.getParameters();
-        List<Camera.Size> supportedPreviewSizes = parameters.getSupportedPreviewSizes();
-        List<Camera.Size> supportedPictureSizes = parameters.getSupportedPictureSizes();
+    public static List<SizePair> generateValidPreviewSizeList(CameraCapabilityCache.LegacyCapabilities capabilities) {
+        List<Size> supportedPreviewSizes = capabilities.previewSizes;
+        List<Size> supportedPictureSizes = capabilities.pictureSizes;
         List<SizePair> validPreviewSizes = new ArrayList<>();
-        for (Camera.Size previewSize : supportedPreviewSizes) {
-            float previewAspectRatio = (float) previewSize.width / (float) previewSize.height;
+        for (Size previewSize : supportedPreviewSizes) {
+            float previewAspectRatio = (float) previewSize.getWidth() / (float) previewSize.getHeight();
 
             // By looping through the picture sizes in order, we favor the higher resolutions.
             // We choose the highest resolution in order to support taking the full resolution
             // picture later.
-            for (Camera.Size pictureSize : supportedPictureSizes) {
-                float pictureAspectRatio = (float) pictureSize.width / (float) pictureSize.height;
+            for (Size pictureSize : supportedPictureSizes) {
+                float pictureAspectRatio = (float) pictureSize.getWidth() / (float) pictureSize.getHeight();
                 if (Math.abs(previewAspectRatio - pictureAspectRatio) < ASPECT_RATIO_TOLERANCE) {
                     validPreviewSizes.add(new SizePair(previewSize, pictureSize));
                     break;
@@ -469,7 +782,7 @@ public class CameraSource {
         // still account for it.
         if (validPreviewSizes.size() == 0) {
             Log.w(TAG, "No preview sizes have a corresponding same-aspect-ratio picture size");
-            for (Camera.Size previewSize : supportedPreviewSizes) {
+            for (Size previewSize : supportedPreviewSizes) {
                 // The null picture size will let us know that we shouldn't set a picture size.
                 validPreviewSizes.add(new SizePair(previewSize, null));
             }
@@ -481,12 +794,12 @@ public class CameraSource {
     /**
      * Selects the most suitable preview frames per second range, given the desired frames per second.
      *
-     * @param camera            the camera to select a frames per second range from
-     * @param desiredPreviewFps the desired frames per second for the camera preview frames
+     * @param previewFpsRangeList the frames per second ranges the camera supports
+     * @param desiredPreviewFps   the desired frames per second for the camera preview frames
      * @return the selected preview frames per second range
      */
     @SuppressLint("InlinedApi")
-    private static int[] selectPreviewFpsRange(Camera camera, float desiredPreviewFps) {
+    public static int[] selectPreviewFpsRange(List<int[]> previewFpsRangeList, float desiredPreviewFps) {
         // The camera API uses integers scaled by a factor of 1000 instead of floating-point frame
         // rates.
         int desiredPreviewFpsScaled = (int) (desiredPreviewFps * 1000.0f);
@@ -498,7 +811,6 @@ public class CameraSource {
         int[] selectedFpsRange = null;
         int minUpperBoundDiff = Integer.MAX_VALUE;
         int minLowerBound = Integer.MAX_VALUE;
-        List<int[]> previewFpsRangeList = camera.getParameters().getSupportedPreviewFpsRange();
         for (int[] range : previewFpsRangeList) {
             int upperBoundDiff =
                     Math.abs(desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
@@ -562,29 +874,45 @@ public class CameraSource {
     }
 
     /**
-     * Creates one buffer for the camera preview callback. The size of the buffer is based off of the
-     * camera preview size and the format of the camera image.
-     *
-     * @return a new preview buffer of the appropriate size for the current camera settings
+     * Creates the preview buffers for the camera preview callback, or reuses those of the suspended
+     * camera if they are the same size, and hands them to the camera. The size of each buffer is
+     * based off of the camera preview size and the format of the camera image.
      */
     @SuppressLint("InlinedApi")
-    private byte[] createPreviewBuffer(Size previewSize) {
+    private FramePool createFramePool(final Camera camera, Size previewSize) {
         int bitsPerPixel = ImageFormat.getBitsPerPixel(IMAGE_FORMAT);
         long sizeInBits = (long) previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
         int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
+        FramePool.Recycler recycler = new FramePool.Recycler() {
+            @Override
+            public void recycle(byte[] data) {
+                camera.addCallbackBuffer(data);
+            }
+        };
+
+        FramePool idle = idleFramePool;
+        idleFramePool = null;
+        if (idle != null && idle.getBufferSize() == bufferSize) {
+            Log.v(TAG, "Reusing camera frame buffers: " + idle.getCount());
+            idle.reopen(recycler);
+            return idle;
+        }
 
-        // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
-        // should guarantee that there will be an array to work with.
-        byte[] byteArray = new byte[bufferSize];
-        ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-        if (!buffer.hasArray() || (buffer.array() != byteArray)) {
-            // I don't think that this will ever happen.  But if it does, then we wouldn't be
-            // passing the preview content to the underlying detector later.
-            throw new IllegalStateException("Failed to create valid buffer for camera source.");
+        int count = frameBufferCount;
+        if (count == 0) {
+            int held = 1;
+            synchronized (processorLock) {
+                if (frameProcessor != null) {
+                    held = frameProcessor.getMaxFramesHeld();
+                }
+            }
+            count = held + 3;
         }
+        Log.v(TAG, "Camera frame buffers: " + count);
 
-        bytesToByteBuffer.put(byteArray, buffer);
-        return byteArray;
+        FramePool pool = new FramePool(count, bufferSize, recycler);
+        pool.recycleAll();
+        return pool;
     }
 
     // ==============================================================================================
@@ -597,7 +925,7 @@ public class CameraSource {
     private class CameraPreviewCallback implements Camera.PreviewCallback {
         @Override
         public void onPreviewFrame(byte[] data, Camera camera) {
-            processingRunnable.setNextFrame(data, camera);
+            processingRunnable.setNextFrame(data, camera, System.nanoTime());
         }
     }
 
@@ -627,7 +955,8 @@ public class CameraSource {
         private boolean active = true;
 
         // These pending variables hold the state associated with the new frame awaiting processing.
-        private ByteBuffer pendingFrameData;
+        private FrameLease pendingFrame;
+        private long pendingCaptureNanos;
 
         FrameProcessingRunnable() {
         }
@@ -638,6 +967,10 @@ public class CameraSource {
         void setActive(boolean active) {
             synchronized (lock) {
                 this.active = active;
+                if (!active && pendingFrame != null) {
+                    pendingFrame.release();
+                    pendingFrame = null;
+                }
                 lock.notifyAll();
             }
         }
@@ -646,23 +979,31 @@ public class CameraSource {
          * Sets the frame data received from the camera. This adds the previous unused frame buffer (if
          * present) back to the camera, and keeps a pending reference to the frame data for future use.
          */
-        @SuppressWarnings("ByteBufferBackingArray")
-        void setNextFrame(byte[] data, Camera camera) {
+        void setNextFrame(byte[] data, Camera camera, long captureNanos) {
             synchronized (lock) {
-                if (pendingFrameData != null) {
-                    camera.addCallbackBuffer(pendingFrameData.array());
-                    pendingFrameData = null;
+                if (pendingFrame != null) {
+                    pendingFrame.release();
+                    pendingFrame = null;
+                }
+
+                FrameRateGovernor governor = frameRateGovernor;
+                if (governor != null && !governor.shouldProcessFrame(captureNanos)) {
+                    // The detector can't keep up with this frame rate; hand the buffer right back.
+                    camera.addCallbackBuffer(data);
+                    return;
                 }
 
-                if (!bytesToByteBuffer.containsKey(data)) {
+                FrameLease lease = framePool != null ? framePool.acquire(data) : null;
+                if (lease == null) {
                     Log.d(
                             TAG,
-                            "Skipping frame. Could not find ByteBuffer associated with the image "
+                            "Skipping frame. Could not find a free pool buffer for the image "
                                     + "data from the camera.");
                     return;
                 }
 
-                pendingFrameData = bytesToByteBuffer.get(data);
+                pendingFrame = lease;
+                pendingCaptureNanos = captureNanos;
 
                 // Notify the processor thread if it is waiting on the next frame (see below).
                 lock.notifyAll();
@@ -683,14 +1024,15 @@ public class CameraSource {
          * FPS setting above to allow for some idle time in between frames.
          */
         @SuppressLint("InlinedApi")
-        @SuppressWarnings({"GuardedBy", "ByteBufferBackingArray"})
+        @SuppressWarnings("GuardedBy")
         @Override
         public void run() {
-            ByteBuffer data;
+            FrameLease frame;
+            long captureNanos;
 
             while (true) {
                 synchronized (lock) {
-                    while (active && (pendingFrameData == null)) {
+                    while (active && (pendingFrame == null)) {
                         try {
                             // Wait for the next frame to be received from the camera, since we
                             // don't have it yet.
@@ -709,11 +1051,12 @@ public class CameraSource {
                         return;
                     }
 
-                    // Hold onto the frame data locally, so that we can use this for detection
-                    // below.  We need to clear pendingFrameData to ensure that this buffer isn't
+                    // Hold onto the frame lease locally, so that we can use this for detection
+                    // below.  We need to clear pendingFrame to ensure that this buffer isn't
                     // recycled back to the camera before we are done using that data.
-                    data = pendingFrameData;
-                    pendingFrameData = null;
+                    frame = pendingFrame;
+                    captureNanos = pendingCaptureNanos;
+                    pendingFrame = null;
                 }
 
                 // The code below needs to run outside of synchronization, because this will allow
@@ -721,19 +1064,24 @@ public class CameraSource {
                 // frame.
 
                 try {
+                    updateAutoTorch(frame.getBuffer(), previewSize.getWidth(), previewSize.getHeight(),
+                            previewSize.getWidth(), 1, captureNanos);
                     synchronized (processorLock) {
                         frameProcessor.process(
-                                data,
+                                frame,
                                 new FrameMetadata.Builder()
                                         .setWidth(previewSize.getWidth())
                                         .setHeight(previewSize.getHeight())
                                         .setRotation(rotationDegrees)
+                                        .setCaptureNanos(captureNanos)
+                                        .setDequeueNanos(System.nanoTime())
                                         .build());
                     }
                 } catch (Exception t) {
                     Log.e(TAG, "Exception thrown from receiver.", t);
                 } finally {
-                    camera.addCallbackBuffer(data.array());
+                    // The processor retains the lease for as long as detection reads the frame.
+                    frame.release();
                 }
             }
         }
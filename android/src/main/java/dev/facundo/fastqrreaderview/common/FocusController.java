@@ -0,0 +1,146 @@
+package dev.facundo.fastqrreaderview.common;
+
+import android.graphics.Rect;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Steers the camera's focus and metering areas to where codes are, instead of leaving continuous
+ * autofocus to pick whatever fills most of the frame, which for a small label is usually the shelf
+ * behind it.
+ *
+ * <p>The frame processor reports the box of the code it saw in each frame, or that it saw none.
+ * The area follows a code once it has moved well away from the current area, at most every {@link
+ * #MIN_INTERVAL_NS}, so autofocus has time to settle. Once no code has been seen for {@link
+ * #RESET_AFTER_NS} the area goes back to the scan window, or to the camera's default if there is
+ * none. Must be called from one thread; the plugin uses the main thread.
+ */
+public class FocusController {
+
+    private static final long MIN_INTERVAL_NS = 500_000_000L;
+    private static final long RESET_AFTER_NS = 1_500_000_000L;
+    // The area keeps following a code until its box overlaps the area by less than this.
+    private static final float MIN_OVERLAP = 0.5f;
+    // Margin added around a code's box on each side, as a fraction of its size, so autofocus sees
+    // the label's edges too.
+    private static final float PADDING = 0.25f;
+    // Smallest area side, as a fraction of the frame's shorter side. Tiny areas give autofocus too
+    // little contrast to work with.
+    private static final float MIN_AREA_SIZE = 0.15f;
+
+    private static final int MODE_DEFAULT = 0;
+    private static final int MODE_WINDOW = 1;
+    private static final int MODE_CODE = 2;
+
+    private final CameraSource cameraSource;
+
+    @Nullable
+    private ScanWindow scanWindow;
+    private int mode = MODE_DEFAULT;
+    private final Rect area = new Rect();
+    private final Rect target = new Rect();
+    private long lastChangeNanos;
+    private long lastSeenNanos;
+
+    public FocusController(CameraSource cameraSource) {
+        this.cameraSource = cameraSource;
+    }
+
+    /**
+     * Sets the region to focus on while no code is in view, or null for the camera's default.
+     * Takes effect with the next frame without a code.
+     */
+    public void setScanWindow(@Nullable ScanWindow window) {
+        scanWindow = window;
+        if (mode == MODE_WINDOW) {
+            mode = MODE_DEFAULT;
+        }
+    }
+
+    /**
+     * Reports a code seen in {@code frame}, with its box in upright full-frame pixels.
+     */
+    public void onCodeSeen(int left, int top, int right, int bottom, FrameMetadata frame, long nowNanos) {
+        lastSeenNanos = nowNanos;
+        toSensor(left, top, right, bottom, frame, target);
+        pad(target, frame.getWidth(), frame.getHeight());
+        if (mode == MODE_CODE && overlap(target, area) >= MIN_OVERLAP) {
+            return;
+        }
+        if (mode == MODE_CODE && nowNanos - lastChangeNanos < MIN_INTERVAL_NS) {
+            return;
+        }
+        mode = MODE_CODE;
+        apply(target, nowNanos);
+    }
+
+    /** Reports a frame without codes. */
+    public void onNothingSeen(FrameMetadata frame, long nowNanos) {
+        if (mode == MODE_WINDOW || (mode == MODE_CODE && nowNanos - lastSeenNanos < RESET_AFTER_NS)) {
+            return;
+        }
+        ScanWindow window = scanWindow;
+        if (window == null) {
+            if (mode == MODE_CODE) {
+                mode = MODE_DEFAULT;
+                lastChangeNanos = nowNanos;
+                cameraSource.setFocusArea(null);
+            }
+            return;
+        }
+        window.computeCrop(frame.getWidth(), frame.getHeight(), frame.getRotation());
+        target.set(window.getCropLeft(), window.getCropTop(),
+                window.getCropLeft() + window.getCropWidth(), window.getCropTop() + window.getCropHeight());
+        mode = MODE_WINDOW;
+        apply(target, nowNanos);
+    }
+
+    private void apply(Rect sensorArea, long nowNanos) {
+        area.set(sensorArea);
+        lastChangeNanos = nowNanos;
+        cameraSource.setFocusArea(area);
+    }
+
+    /**
+     * Maps a box in upright frame pixels back to the unrotated frame, which is what the camera's
+     * areas are relative to.
+     */
+    private static void toSensor(int left, int top, int right, int bottom, FrameMetadata frame, Rect out) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        switch (frame.getRotation()) {
+            case 90:
+                out.set(top, height - right, bottom, height - left);
+                break;
+            case 180:
+                out.set(width - right, height - bottom, width - left, height - top);
+                break;
+            case 270:
+                out.set(width - bottom, left, width - top, right);
+                break;
+            default:
+                out.set(left, top, right, bottom);
+                break;
+        }
+    }
+
+    private static void pad(Rect rect, int width, int height) {
+        int minSize = (int) (Math.min(width, height) * MIN_AREA_SIZE);
+        int padX = Math.max((int) (rect.width() * PADDING), (minSize - rect.width()) / 2);
+        int padY = Math.max((int) (rect.height() * PADDING), (minSize - rect.height()) / 2);
+        rect.inset(-padX, -padY);
+        if (!rect.intersect(0, 0, width, height)) {
+            rect.set(0, 0, width, height);
+        }
+    }
+
+    /** Returns how much of {@code a} lies within {@code b}, 0 to 1. */
+    private static float overlap(Rect a, Rect b) {
+        int w = Math.min(a.right, b.right) - Math.max(a.left, b.left);
+        int h = Math.min(a.bottom, b.bottom) - Math.max(a.top, b.top);
+        if (w <= 0 || h <= 0 || a.isEmpty()) {
+            return 0;
+        }
+        return (float) w * h / ((float) a.width() * a.height());
+    }
+}
@@ -0,0 +1,84 @@
+package dev.facundo.fastqrreaderview.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference-counted claim on one of a {@link FramePool}'s buffers. The buffer goes back to the
+ * camera once every holder has called {@link #release()}, so a consumer that keeps using the
+ * frame after handing it on must {@link #retain()} it first.
+ */
+public final class FrameLease {
+
+    private final FramePool pool;
+    private final byte[] data;
+    private final ByteBuffer buffer;
+    private final AtomicInteger refCount = new AtomicInteger();
+    // Whether the buffer is queued with the camera. Set under the pool's lock; cleared by acquire()
+    // once the camera has filled the buffer.
+    volatile boolean queued;
+
+    FrameLease(FramePool pool, byte[] data) {
+        this.pool = pool;
+        this.data = data;
+        this.buffer = ByteBuffer.wrap(data);
+    }
+
+    /** Returns the frame's backing array. */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns the frame wrapped in a buffer positioned at 0. The buffer is shared between holders,
+     * so use {@link ByteBuffer#duplicate()} before moving its position.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Adds a holder.
+     *
+     * @throws IllegalStateException if the lease was already released by all holders
+     */
+    public FrameLease retain() {
+        int count;
+        do {
+            count = refCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Frame lease already released.");
+            }
+        } while (!refCount.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    /**
+     * Drops a holder, returning the buffer to the pool if it was the last one.
+     *
+     * @throws IllegalStateException if called more often than the lease was acquired and retained
+     */
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            pool.recycle(this);
+        } else if (count < 0) {
+            refCount.incrementAndGet();
+            throw new IllegalStateException("Frame lease released too often.");
+        }
+    }
+
+    /** Starts a new lease cycle with the camera's frame as the only holder. */
+    boolean acquire() {
+        if (!refCount.compareAndSet(0, 1)) {
+            return false;
+        }
+        queued = false;
+        return true;
+    }
+
+    /** Returns whether every holder has released the lease. */
+    boolean isReleased() {
+        return refCount.get() == 0;
+    }
+}
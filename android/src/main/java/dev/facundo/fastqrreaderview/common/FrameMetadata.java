@@ -20,6 +20,12 @@ public class FrameMetadata {
   private final int height;
   private final int rotation;
   private final int cameraFacing;
+  private final int cropLeft;
+  private final int cropTop;
+  private final int cropWidth;
+  private final int cropHeight;
+  private final long captureNanos;
+  private final long dequeueNanos;
 
   public int getWidth() {
     return width;
@@ -37,11 +43,105 @@ public class FrameMetadata {
     return cameraFacing;
   }
 
-  private FrameMetadata(int width, int height, int rotation, int facing) {
+  /** Returns whether only part of the frame, see {@link #getCropLeft()} etc., was analyzed. */
+  public boolean isCropped() {
+    return cropWidth > 0 && cropHeight > 0;
+  }
+
+  /** Left edge of the analyzed region, in unrotated frame pixels. */
+  public int getCropLeft() {
+    return cropLeft;
+  }
+
+  /** Top edge of the analyzed region, in unrotated frame pixels. */
+  public int getCropTop() {
+    return cropTop;
+  }
+
+  public int getCropWidth() {
+    return isCropped() ? cropWidth : width;
+  }
+
+  public int getCropHeight() {
+    return isCropped() ? cropHeight : height;
+  }
+
+  /**
+   * {@link System#nanoTime()} when the camera delivered the frame, or 0 if unknown.
+   */
+  public long getCaptureNanos() {
+    return captureNanos;
+  }
+
+  /**
+   * {@link System#nanoTime()} when the frame was taken off the camera's queue for detection, or 0
+   * if unknown.
+   */
+  public long getDequeueNanos() {
+    return dequeueNanos;
+  }
+
+  /**
+   * Maps an x coordinate reported by the detector, which is relative to the upright analyzed
+   * region, to the upright full frame.
+   */
+  public int toFrameX(int x) {
+    if (!isCropped()) {
+      return x;
+    }
+    switch (rotation) {
+      case 90:
+        return x + height - cropTop - cropHeight;
+      case 180:
+        return x + width - cropLeft - cropWidth;
+      case 270:
+        return x + cropTop;
+      default:
+        return x + cropLeft;
+    }
+  }
+
+  /**
+   * Maps a y coordinate reported by the detector, which is relative to the upright analyzed
+   * region, to the upright full frame.
+   */
+  public int toFrameY(int y) {
+    if (!isCropped()) {
+      return y;
+    }
+    switch (rotation) {
+      case 90:
+        return y + cropLeft;
+      case 180:
+        return y + height - cropTop - cropHeight;
+      case 270:
+        return y + width - cropLeft - cropWidth;
+      default:
+        return y + cropTop;
+    }
+  }
+
+  private FrameMetadata(
+      int width,
+      int height,
+      int rotation,
+      int facing,
+      int cropLeft,
+      int cropTop,
+      int cropWidth,
+      int cropHeight,
+      long captureNanos,
+      long dequeueNanos) {
     this.width = width;
     this.height = height;
     this.rotation = rotation;
     cameraFacing = facing;
+    this.cropLeft = cropLeft;
+    this.cropTop = cropTop;
+    this.cropWidth = cropWidth;
+    this.cropHeight = cropHeight;
+    this.captureNanos = captureNanos;
+    this.dequeueNanos = dequeueNanos;
   }
 
   /** Builder of {@link FrameMetadata}. */
@@ -51,6 +151,28 @@ public class FrameMetadata {
     private int height;
     private int rotation;
     private int cameraFacing;
+    private int cropLeft;
+    private int cropTop;
+    private int cropWidth;
+    private int cropHeight;
+    private long captureNanos;
+    private long dequeueNanos;
+
+    public Builder() {}
+
+    /** Starts from a copy of {@code metadata}. */
+    public Builder(FrameMetadata metadata) {
+      width = metadata.width;
+      height = metadata.height;
+      rotation = metadata.rotation;
+      cameraFacing = metadata.cameraFacing;
+      cropLeft = metadata.cropLeft;
+      cropTop = metadata.cropTop;
+      cropWidth = metadata.cropWidth;
+      cropHeight = metadata.cropHeight;
+      captureNanos = metadata.captureNanos;
+      dequeueNanos = metadata.dequeueNanos;
+    }
 
     public Builder setWidth(int width) {
       this.width = width;
@@ -72,8 +194,37 @@ public class FrameMetadata {
       return this;
     }
 
+    /** Sets the region of the frame, in unrotated pixels, that is handed to the detector. */
+    public Builder setCrop(int left, int top, int width, int height) {
+      cropLeft = left;
+      cropTop = top;
+      cropWidth = width;
+      cropHeight = height;
+      return this;
+    }
+
+    public Builder setCaptureNanos(long captureNanos) {
+      this.captureNanos = captureNanos;
+      return this;
+    }
+
+    public Builder setDequeueNanos(long dequeueNanos) {
+      this.dequeueNanos = dequeueNanos;
+      return this;
+    }
+
     public FrameMetadata build() {
-      return new FrameMetadata(width, height, rotation, cameraFacing);
+      return new FrameMetadata(
+          width,
+          height,
+          rotation,
+          cameraFacing,
+          cropLeft,
+          cropTop,
+          cropWidth,
+          cropHeight,
+          captureNanos,
+          dequeueNanos);
     }
   }
 }
@@ -0,0 +1,107 @@
+package dev.facundo.fastqrreaderview.common;
+
+/**
+ * Fixed set of preview buffers shared between the camera and the frame processor.
+ *
+ * <p>Every buffer starts out with the camera. When the camera fills one, {@link #acquire(byte[])}
+ * hands out a {@link FrameLease} for it, and once the last holder releases the lease the buffer is
+ * given back to the camera through the {@link Recycler}. The number of buffers bounds how many
+ * frames the camera and detector can have in flight together.
+ *
+ * <p>The legacy camera API only accepts heap arrays as callback buffers, so the buffers are plain
+ * {@code byte[]}s wrapped once in a {@link java.nio.ByteBuffer} each.
+ *
+ * <p>A closed pool can be {@link #reopen reopened} for a new camera of the same preview size, so a
+ * camera restart doesn't allocate the buffers again.
+ */
+public class FramePool {
+
+    /** Gives a free buffer back to the camera. */
+    public interface Recycler {
+        void recycle(byte[] data);
+    }
+
+    private final FrameLease[] leases;
+    // Guarded by this.
+    private Recycler recycler;
+    // Guarded by this; set once the camera is gone, after which buffers are no longer recycled.
+    private boolean closed;
+
+    /**
+     * @param count      number of buffers, at least 1
+     * @param bufferSize size of each buffer in bytes
+     * @param recycler   receives every buffer whose lease was fully released
+     */
+    public FramePool(int count, int bufferSize, Recycler recycler) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be at least 1: " + count);
+        }
+        this.recycler = recycler;
+        this.leases = new FrameLease[count];
+        for (int i = 0; i < count; i++) {
+            leases[i] = new FrameLease(this, new byte[bufferSize]);
+        }
+    }
+
+    public int getCount() {
+        return leases.length;
+    }
+
+    public int getBufferSize() {
+        return leases[0].getData().length;
+    }
+
+    /** Hands every buffer that isn't leased to the recycler, to prime the camera. */
+    public synchronized void recycleAll() {
+        for (FrameLease lease : leases) {
+            if (!lease.queued && lease.isReleased()) {
+                lease.queued = true;
+                recycler.recycle(lease.getData());
+            }
+        }
+    }
+
+    /**
+     * Starts recycling into {@code recycler} again after {@link #close()}, and hands it every buffer
+     * that isn't leased. Buffers still leased follow once they are released.
+     */
+    public synchronized void reopen(Recycler recycler) {
+        this.recycler = recycler;
+        closed = false;
+        // Whatever the previous camera had queued went away with it.
+        for (FrameLease lease : leases) {
+            lease.queued = false;
+        }
+        recycleAll();
+    }
+
+    /**
+     * Returns a lease on the buffer the camera just filled, held once by the caller, or null if
+     * {@code data} does not belong to this pool or is already leased.
+     */
+    public FrameLease acquire(byte[] data) {
+        // Only a handful of buffers, so a linear identity scan beats hashing.
+        for (FrameLease lease : leases) {
+            if (lease.getData() == data) {
+                return lease.acquire() ? lease : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops recycling buffers. Leases still held can be released as usual, but their buffers are
+     * dropped instead of going back to the camera.
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    synchronized void recycle(FrameLease lease) {
+        // A lease released while reopen() ran may already be queued again.
+        if (!closed && !lease.queued) {
+            lease.queued = true;
+            recycler.recycle(lease.getData());
+        }
+    }
+}
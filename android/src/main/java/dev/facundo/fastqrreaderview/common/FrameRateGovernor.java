@@ -0,0 +1,147 @@
+package dev.facundo.fastqrreaderview.common;
+
+/**
+ * Matches the rate at which frames are captured and handed to the detector to the rate at which
+ * the detector actually finishes them.
+ *
+ * <p>The frame processor reports each detection's latency through {@link #onDetectLatency(long)},
+ * which feeds a moving average. From that the governor derives a target frame rate with some
+ * headroom. Camera sources use the target in two ways: backends that can change their frame rate
+ * while streaming get a {@link Listener} callback, and every backend asks {@link
+ * #shouldProcessFrame(long)} per frame, which skips frames to meet the target if the camera
+ * delivers more than that.
+ *
+ * <p>The camera rate is measured from the frame timestamps rather than taken from the configured
+ * range, whose ceiling auto-exposure is free to fall well below in dim light.
+ */
+public class FrameRateGovernor {
+
+    public interface Listener {
+        /** Called on the thread that reported the latency, at most once per second. */
+        void onTargetFpsChanged(float targetFps);
+    }
+
+    // Weight of the newest sample in the moving average.
+    private static final double ALPHA = 0.2;
+    // Capture a bit faster than the detector finishes frames so it never waits for one.
+    private static final float HEADROOM = 1.25f;
+    private static final float MIN_FPS = 5.0f;
+    // Relative change needed before listeners hear about a new target.
+    private static final float HYSTERESIS = 0.2f;
+    private static final long MIN_UPDATE_INTERVAL_NS = 1_000_000_000L;
+    // Longer gaps between frames are a stall or a restart, not the camera's frame rate.
+    private static final long MAX_FRAME_INTERVAL_NS = 1_000_000_000L;
+
+    private final float maxFps;
+    private final int concurrency;
+
+    private volatile Listener listener;
+
+    // Written only by the thread reporting latencies.
+    private double averageLatencyNs;
+    private long lastUpdateNs;
+    private float reportedFps;
+
+    private volatile float targetFps;
+    private volatile float cameraFps;
+
+    // Only touched by the camera thread calling shouldProcessFrame().
+    private float credit;
+    private long lastFrameNs;
+    private double averageFrameIntervalNs;
+
+    /**
+     * @param maxFps      frame rate to aim for when the detector keeps up
+     * @param concurrency number of frames the detector works on at once
+     */
+    public FrameRateGovernor(float maxFps, int concurrency) {
+        this.maxFps = maxFps;
+        this.concurrency = concurrency;
+        this.targetFps = maxFps;
+        this.reportedFps = maxFps;
+        this.cameraFps = maxFps;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Tells the governor the rate the camera is expected to deliver frames at, until frame
+     * timestamps say otherwise. Call before the camera starts delivering frames.
+     */
+    public void setCameraFps(float cameraFps) {
+        this.cameraFps = cameraFps;
+        lastFrameNs = 0;
+        averageFrameIntervalNs = 0;
+    }
+
+    public float getTargetFps() {
+        return targetFps;
+    }
+
+    /** Returns the moving average of the detection latency, or 0 before the first sample. */
+    public long getAverageLatencyNs() {
+        return (long) averageLatencyNs;
+    }
+
+    /** Records how long one detection took, from submission to completion. */
+    public void onDetectLatency(long latencyNs) {
+        if (latencyNs <= 0) {
+            return;
+        }
+        averageLatencyNs = averageLatencyNs == 0
+                ? latencyNs
+                : ALPHA * latencyNs + (1 - ALPHA) * averageLatencyNs;
+
+        float sustainableFps = (float) (concurrency * 1e9 / averageLatencyNs) * HEADROOM;
+        float target = Math.max(MIN_FPS, Math.min(maxFps, sustainableFps));
+        targetFps = target;
+
+        long now = System.nanoTime();
+        if (now - lastUpdateNs < MIN_UPDATE_INTERVAL_NS
+                || Math.abs(target - reportedFps) < reportedFps * HYSTERESIS) {
+            return;
+        }
+        lastUpdateNs = now;
+        reportedFps = target;
+        Listener current = listener;
+        if (current != null) {
+            current.onTargetFpsChanged(target);
+        }
+    }
+
+    /** Returns the camera frame rate as measured from frame timestamps, or as last set. */
+    public float getCameraFps() {
+        return cameraFps;
+    }
+
+    /**
+     * Returns whether the camera frame captured at {@code frameNs} should go to the detector.
+     * Spreads the kept frames evenly, e.g. every other frame when the target is half the camera
+     * rate. Every frame the camera delivers must be passed here, in order, so the camera rate can
+     * be measured.
+     */
+    public boolean shouldProcessFrame(long frameNs) {
+        long interval = frameNs - lastFrameNs;
+        if (lastFrameNs != 0 && interval > 0 && interval < MAX_FRAME_INTERVAL_NS) {
+            averageFrameIntervalNs = averageFrameIntervalNs == 0
+                    ? interval
+                    : ALPHA * interval + (1 - ALPHA) * averageFrameIntervalNs;
+            cameraFps = (float) (1e9 / averageFrameIntervalNs);
+        }
+        lastFrameNs = frameNs;
+
+        float ratio = targetFps / cameraFps;
+        if (ratio >= 1.0f) {
+            credit = 0;
+            return true;
+        }
+        credit += ratio;
+        if (credit >= 1.0f) {
+            credit -= 1.0f;
+            return true;
+        }
+        return false;
+    }
+}
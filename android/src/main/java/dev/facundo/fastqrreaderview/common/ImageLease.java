@@ -0,0 +1,76 @@
+package dev.facundo.fastqrreaderview.common;
+
+import android.media.Image;
+import android.media.ImageReader;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Claim on a camera2 {@link Image} handed to a frame processor. Closing an {@link ImageReader}
+ * frees the planes of every image it handed out, so the reader is only closed once it was asked
+ * to and every lease on its images has been closed too.
+ */
+public final class ImageLease {
+
+    private final Reader reader;
+    private final Image image;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private ImageLease(Reader reader, Image image) {
+        this.reader = reader;
+        this.image = image;
+    }
+
+    public Image getImage() {
+        return image;
+    }
+
+    /** Closes the image, and the reader too if it is waiting for this lease. Safe to call twice. */
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            image.close();
+            reader.onLeaseClosed();
+        }
+    }
+
+    /** Keeps count of the leases on one reader's images and closes it after the last one. */
+    static final class Reader {
+        private final ImageReader imageReader;
+        // Guarded by this.
+        private int openLeases;
+        private boolean closeRequested;
+
+        Reader(ImageReader imageReader) {
+            this.imageReader = imageReader;
+        }
+
+        ImageReader getImageReader() {
+            return imageReader;
+        }
+
+        synchronized ImageLease lease(Image image) {
+            openLeases++;
+            return new ImageLease(this, image);
+        }
+
+        /** Closes the reader now, or once the last lease on its images is closed. */
+        void close() {
+            synchronized (this) {
+                closeRequested = true;
+                if (openLeases > 0) {
+                    return;
+                }
+            }
+            imageReader.close();
+        }
+
+        private void onLeaseClosed() {
+            synchronized (this) {
+                if (--openLeases > 0 || !closeRequested) {
+                    return;
+                }
+            }
+            imageReader.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package dev.facundo.fastqrreaderview.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies, safe to record into from any thread without blocking the
+ * camera or main thread.
+ *
+ * <p>Samples go into power-of-two buckets of microseconds, so percentiles are estimates: within a
+ * bucket they are interpolated linearly, which is good to a few percent for the spreads seen in the
+ * frame pipeline.
+ */
+public class LatencyHistogram {
+
+    // Bucket i holds samples in [2^(i-1), 2^i) microseconds, bucket 0 holds samples under 1us.
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /** Records one sample; negative samples, from a missing timestamp, are ignored. */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        long micros = nanos / 1000;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        counts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        long max;
+        while (micros > (max = maxMicros.get())) {
+            if (maxMicros.compareAndSet(max, micros)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns an estimate of the given percentile, from 0 to 100, in milliseconds, or 0 if nothing
+     * was recorded.
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        return percentileMillis(snapshot, total, percentile);
+    }
+
+    /** Clears all samples. Samples recorded concurrently may or may not survive. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sumMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    /**
+     * Returns count, mean, p50, p90, p99 and max, with durations in milliseconds, in a form that
+     * can be sent over a platform channel.
+     */
+    public Map<String, Object> toMap() {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("count", total);
+        map.put("mean", total > 0 ? sumMicros.get() / 1000.0 / total : 0.0);
+        map.put("p50", percentileMillis(snapshot, total, 50));
+        map.put("p90", percentileMillis(snapshot, total, 90));
+        map.put("p99", percentileMillis(snapshot, total, 99));
+        map.put("max", maxMicros.get() / 1000.0);
+        return map;
+    }
+
+    private static double percentileMillis(long[] snapshot, long total, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        double rank = total * percentile / 100.0;
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] == 0) {
+                continue;
+            }
+            if (seen + snapshot[i] >= rank) {
+                double lower = i == 0 ? 0 : 1L << (i - 1);
+                double upper = 1L << i;
+                double fraction = (rank - seen) / snapshot[i];
+                return (lower + (upper - lower) * fraction) / 1000.0;
+            }
+            seen += snapshot[i];
+        }
+        return (1L << (snapshot.length - 1)) / 1000.0;
+    }
+}
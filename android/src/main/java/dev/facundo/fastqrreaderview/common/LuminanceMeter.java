@@ -0,0 +1,77 @@
+package dev.facundo.fastqrreaderview.common;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Measures the brightness of a frame from its luma plane, cheaply enough to run on every frame.
+ *
+ * <p>Only every {@code step}-th pixel of every {@code step}-th row is read, into a histogram that
+ * is reused from frame to frame, so a measurement allocates nothing. Not thread-safe; each camera
+ * thread should have its own meter.
+ */
+public class LuminanceMeter {
+
+    private final int step;
+    private final int[] histogram = new int[256];
+    private int samples;
+    private long sum;
+
+    /**
+     * @param step distance in pixels between samples, both across and down
+     */
+    public LuminanceMeter(int step) {
+        if (step < 1) {
+            throw new IllegalArgumentException("Invalid step: " + step);
+        }
+        this.step = step;
+    }
+
+    /**
+     * Samples a luma plane. Works on the Y plane of an NV21 buffer ({@code rowStride} = width,
+     * {@code pixelStride} = 1) as well as on a camera2 {@code Image.Plane}. Only absolute reads are
+     * used, so the buffer's position is left alone.
+     */
+    public void measure(ByteBuffer luma, int width, int height, int rowStride, int pixelStride) {
+        Arrays.fill(histogram, 0);
+        long total = 0;
+        int count = 0;
+        int columnStep = step * pixelStride;
+        int rowEnd = width * pixelStride;
+        for (int y = step / 2; y < height; y += step) {
+            int row = y * rowStride;
+            for (int x = (step / 2) * pixelStride; x < rowEnd; x += columnStep) {
+                int value = luma.get(row + x) & 0xFF;
+                histogram[value]++;
+                total += value;
+                count++;
+            }
+        }
+        sum = total;
+        samples = count;
+    }
+
+    /** Returns the mean luma of the last measured frame, 0 to 255. */
+    public int getMean() {
+        return samples > 0 ? (int) (sum / samples) : 0;
+    }
+
+    /**
+     * Returns the luma that {@code percentile} percent of the samples of the last measured frame are
+     * at or below, 0 to 255.
+     */
+    public int getPercentile(float percentile) {
+        if (samples == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(samples * percentile / 100.0));
+        long seen = 0;
+        for (int value = 0; value < histogram.length; value++) {
+            seen += histogram[value];
+            if (seen >= rank) {
+                return value;
+            }
+        }
+        return histogram.length - 1;
+    }
+}
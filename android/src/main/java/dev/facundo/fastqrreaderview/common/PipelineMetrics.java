@@ -0,0 +1,66 @@
+package dev.facundo.fastqrreaderview.common;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Latency of each stage a frame goes through, from the camera callback to the scanned code being
+ * sent to Flutter. Stages record into lock-free {@link LatencyHistogram}s, so instrumentation
+ * never holds up the pipeline.
+ */
+public class PipelineMetrics {
+
+    public enum Stage {
+        /** Camera callback until the frame is taken off the queue for detection. */
+        QUEUE,
+        /** Dequeue until the detector's input image is built, including any crop. */
+        BUILD,
+        /** Input image built until it is submitted, i.e. time spent waiting for a free slot. */
+        WAIT,
+        /** Submission until the detection task completes. */
+        DETECT,
+        /** Task completion until the result is delivered, in frame order. */
+        DELIVER,
+        /** Camera callback until the code is sent over the method channel. */
+        TOTAL
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+    public PipelineMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records the time between two {@link System#nanoTime()} readings. Ignored if {@code
+     * startNanos} is 0, i.e. the frame's source did not provide that timestamp.
+     */
+    public void record(Stage stage, long startNanos, long endNanos) {
+        if (startNanos == 0) {
+            return;
+        }
+        histograms[stage.ordinal()].record(endNanos - startNanos);
+    }
+
+    public LatencyHistogram get(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /** Returns every stage's summary, keyed by the stage's lower-case name. */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        for (Stage stage : Stage.values()) {
+            map.put(stage.name().toLowerCase(Locale.ROOT), histograms[stage.ordinal()].toMap());
+        }
+        return map;
+    }
+}
@@ -0,0 +1,144 @@
+package dev.facundo.fastqrreaderview.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Region of the preview, in normalized upright coordinates, that the detector should look at.
+ * Frames are cropped to this region before detection so ML Kit only spends time on the pixels
+ * under the reticle.
+ *
+ * <p>{@link #computeCrop(int, int, int)} converts the window to a pixel rectangle in the
+ * unrotated frame. The result is cached, since frame size and rotation rarely change.
+ */
+public class ScanWindow {
+
+    private final float left;
+    private final float top;
+    private final float right;
+    private final float bottom;
+
+    // Last computed crop and the frame geometry it was computed for.
+    private int cachedWidth = -1;
+    private int cachedHeight = -1;
+    private int cachedRotation = -1;
+    private int cropLeft;
+    private int cropTop;
+    private int cropWidth;
+    private int cropHeight;
+
+    /**
+     * @throws IllegalArgumentException if the window is empty or not within [0, 1]
+     */
+    public ScanWindow(float left, float top, float right, float bottom) {
+        if (left < 0 || top < 0 || right > 1 || bottom > 1 || left >= right || top >= bottom) {
+            throw new IllegalArgumentException(
+                    "Invalid scan window: " + left + ", " + top + ", " + right + ", " + bottom);
+        }
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    /**
+     * Computes the crop rectangle for a frame of the given unrotated size, which needs {@code
+     * rotation} degrees of clockwise rotation to be upright. Edges are aligned to even pixels so the
+     * NV21 chroma planes can be cropped along with luma.
+     */
+    public synchronized void computeCrop(int width, int height, int rotation) {
+        if (width == cachedWidth && height == cachedHeight && rotation == cachedRotation) {
+            return;
+        }
+
+        // Map the upright window back onto the sensor's orientation.
+        float l;
+        float t;
+        float r;
+        float b;
+        switch (rotation) {
+            case 90:
+                l = top;
+                r = bottom;
+                t = 1 - right;
+                b = 1 - left;
+                break;
+            case 180:
+                l = 1 - right;
+                r = 1 - left;
+                t = 1 - bottom;
+                b = 1 - top;
+                break;
+            case 270:
+                l = 1 - bottom;
+                r = 1 - top;
+                t = left;
+                b = right;
+                break;
+            default:
+                l = left;
+                r = right;
+                t = top;
+                b = bottom;
+                break;
+        }
+
+        int x0 = ((int) (l * width)) & ~1;
+        int y0 = ((int) (t * height)) & ~1;
+        int x1 = Math.min(width, (int) Math.ceil(r * width));
+        int y1 = Math.min(height, (int) Math.ceil(b * height));
+        cropLeft = x0;
+        cropTop = y0;
+        cropWidth = Math.max(2, (x1 - x0) & ~1);
+        cropHeight = Math.max(2, (y1 - y0) & ~1);
+
+        cachedWidth = width;
+        cachedHeight = height;
+        cachedRotation = rotation;
+    }
+
+    public synchronized int getCropLeft() {
+        return cropLeft;
+    }
+
+    public synchronized int getCropTop() {
+        return cropTop;
+    }
+
+    public synchronized int getCropWidth() {
+        return cropWidth;
+    }
+
+    public synchronized int getCropHeight() {
+        return cropHeight;
+    }
+
+    /** Returns the size of an NV21 buffer holding a {@code width} x {@code height} image. */
+    public static int nv21Size(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * Copies the given region of an NV21 frame into {@code dst}, which must hold at least {@link
+     * #nv21Size(int, int)} bytes for the crop size. {@code left}, {@code top}, {@code cropWidth} and
+     * {@code cropHeight} must be even.
+     */
+    public static void cropNv21(
+            ByteBuffer src, int width, int height,
+            int left, int top, int cropWidth, int cropHeight,
+            byte[] dst) {
+        ByteBuffer in = src.duplicate();
+        int out = 0;
+        for (int row = 0; row < cropHeight; row++) {
+            in.position((top + row) * width + left);
+            in.get(dst, out, cropWidth);
+            out += cropWidth;
+        }
+        // Interleaved VU plane: half the rows, full width since each pair covers two pixels.
+        int chromaOffset = width * height;
+        for (int row = 0; row < cropHeight / 2; row++) {
+            in.position(chromaOffset + (top / 2 + row) * width + left);
+            in.get(dst, out, cropWidth);
+            out += cropWidth;
+        }
+    }
+}
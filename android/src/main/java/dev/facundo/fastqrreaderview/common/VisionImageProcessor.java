@@ -14,21 +14,20 @@
 package dev.facundo.fastqrreaderview.common;
 
 import android.graphics.Bitmap;
-import android.media.Image;
 
 import com.google.mlkit.common.MlKitException;
 
-import java.nio.ByteBuffer;
-
 /**
  * An inferface to process the images with different ML Kit detectors and custom image models.
  */
 public interface VisionImageProcessor {
 
     /**
-     * Processes the images with the underlying machine learning models.
+     * Processes the images with the underlying machine learning models. The caller keeps its own
+     * hold on {@code frame} and releases it after this returns; a processor that reads the frame
+     * asynchronously must {@link FrameLease#retain()} it and release it once done.
      */
-    void process(ByteBuffer data, FrameMetadata frameMetadata)//, GraphicOverlay graphicOverlay)
+    void process(FrameLease frame, FrameMetadata frameMetadata)//, GraphicOverlay graphicOverlay)
             throws MlKitException;
 
     /**
@@ -37,9 +36,16 @@ public interface VisionImageProcessor {
     void process(Bitmap bitmap);//, GraphicOverlay graphicOverlay);
 
     /**
-     * Processes the images.
+     * Processes the images. The processor takes ownership of the lease and closes it once the image
+     * is no longer needed, so callers must not close or reuse the image.
+     */
+    void process(ImageLease image, int rotation);//, GraphicOverlay graphicOverlay);
+
+    /**
+     * Returns the most camera frames the processor may hold on to at once, so the camera can be set
+     * up with enough buffers to keep streaming meanwhile.
      */
-    void process(Image bitmap, int rotation);//, GraphicOverlay graphicOverlay);
+    int getMaxFramesHeld();
 
     /**
      * Stops the underlying machine learning model and release resources.
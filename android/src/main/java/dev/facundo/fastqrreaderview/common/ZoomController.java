@@ -0,0 +1,115 @@
+package dev.facundo.fastqrreaderview.common;
+
+/**
+ * Zooms in on codes that are too small in the frame to decode reliably, such as labels on a top
+ * shelf a few metres away, and zooms back out once codes are gone.
+ *
+ * <p>The frame processor reports the box of the code it saw in each frame, or that it saw none.
+ * While the code spans less than the target fraction of the frame, zoom goes up by at most {@link
+ * #STEP} every {@link #STEP_INTERVAL_NS}, as long as the code stays inside the part of the frame that
+ * remains in view; a code that grows well past the target brings zoom down a step. On cameras
+ * with a few coarse zoom ratios a step can be larger than that, so every step is judged by the
+ * ratio the camera would actually apply, and skipped if it would leave the code outside the range
+ * that leaves zoom alone; otherwise zoom would swing back and forth. After {@link
+ * #BACK_OFF_AFTER_NS} without codes, zoom steps back down to 1x so the next code can be found in
+ * the full field of view. Must be called from one thread; the plugin uses the main thread.
+ */
+public class ZoomController {
+
+    private static final float STEP = 1.25f;
+    private static final long STEP_INTERVAL_NS = 400_000_000L;
+    private static final long BACK_OFF_AFTER_NS = 2_000_000_000L;
+    // Zoom in below this fraction of the target and out above this multiple of it, so codes close
+    // to the target leave zoom alone.
+    private static final float ZOOM_IN_BELOW = 0.7f;
+    private static final float ZOOM_OUT_ABOVE = 1.6f;
+    // Margin, as a fraction of the frame, a code must keep from the edges of the zoomed view.
+    private static final float EDGE_MARGIN = 0.05f;
+
+    private final CameraSource cameraSource;
+    private final float targetCoverage;
+    private final float maxZoom;
+
+    private float zoom = 1.0f;
+    private long lastStepNanos;
+    private long lastSeenNanos;
+
+    /**
+     * @param targetCoverage fraction of the frame's shorter side the code's longer side should span
+     * @param maxZoom        highest zoom ratio to use; the camera's own limit applies as well
+     */
+    public ZoomController(CameraSource cameraSource, float targetCoverage, float maxZoom) {
+        if (targetCoverage <= 0 || targetCoverage > 1) {
+            throw new IllegalArgumentException("targetCoverage must be in (0, 1]: " + targetCoverage);
+        }
+        this.cameraSource = cameraSource;
+        this.targetCoverage = targetCoverage;
+        this.maxZoom = Math.max(1.0f, maxZoom);
+    }
+
+    /**
+     * Reports a code seen in a frame, with its box in upright full-frame pixels and the upright
+     * frame size.
+     */
+    public void onCodeSeen(int left, int top, int right, int bottom, int frameWidth, int frameHeight, long nowNanos) {
+        lastSeenNanos = nowNanos;
+        if (nowNanos - lastStepNanos < STEP_INTERVAL_NS) {
+            return;
+        }
+        float coverage = (float) Math.max(right - left, bottom - top) / Math.min(frameWidth, frameHeight);
+        if (coverage > targetCoverage * ZOOM_OUT_ABOVE) {
+            if (zoom > 1.0f) {
+                // Cameras with coarse zoom steps may go down further than asked; don't go so far
+                // that the code is small enough to zoom right back in.
+                float next = cameraSource.resolveZoomRatio(zoom / STEP, maxZoom);
+                if (next < zoom && coverage * next / zoom >= targetCoverage * ZOOM_IN_BELOW) {
+                    step(next, nowNanos);
+                }
+            }
+            return;
+        }
+        if (coverage >= targetCoverage * ZOOM_IN_BELOW || zoom >= maxZoom) {
+            return;
+        }
+        // Cameras with coarse zoom steps may go past the ratio asked for, so judge the step by the
+        // ratio that would actually be applied.
+        float next = cameraSource.resolveZoomRatio(
+                Math.min(zoom * Math.min(STEP, targetCoverage / coverage), maxZoom), maxZoom);
+        if (next <= zoom || coverage * next / zoom > targetCoverage * ZOOM_OUT_ABOVE) {
+            return;
+        }
+        // Zoom crops around the center; only go ahead if the code stays in view.
+        float visible = zoom / next;
+        float minX = frameWidth * ((1 - visible) / 2 + EDGE_MARGIN);
+        float maxX = frameWidth * ((1 + visible) / 2 - EDGE_MARGIN);
+        float minY = frameHeight * ((1 - visible) / 2 + EDGE_MARGIN);
+        float maxY = frameHeight * ((1 + visible) / 2 - EDGE_MARGIN);
+        if (left < minX || right > maxX || top < minY || bottom > maxY) {
+            return;
+        }
+        step(next, nowNanos);
+    }
+
+    /** Reports a frame without codes. */
+    public void onNothingSeen(long nowNanos) {
+        if (zoom <= 1.0f
+                || nowNanos - lastSeenNanos < BACK_OFF_AFTER_NS
+                || nowNanos - lastStepNanos < STEP_INTERVAL_NS) {
+            return;
+        }
+        step(zoom / STEP, nowNanos);
+    }
+
+    /** Returns to 1x, e.g. when scanning stops. */
+    public void reset() {
+        if (zoom > 1.0f) {
+            zoom = cameraSource.setZoomRatio(1.0f);
+        }
+        lastStepNanos = 0;
+    }
+
+    private void step(float ratio, long nowNanos) {
+        lastStepNanos = nowNanos;
+        zoom = cameraSource.setZoomRatio(Math.max(1.0f, ratio), maxZoom);
+    }
+}
@@ -15,21 +15,28 @@ package dev.facundo.fastqrreaderview.java;
 
 import android.graphics.Bitmap;
 import android.media.Image;
-import android.util.Log;
 import android.view.Surface;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.mlkit.vision.common.InputImage;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import dev.facundo.fastqrreaderview.common.FrameLease;
 import dev.facundo.fastqrreaderview.common.FrameMetadata;
+import dev.facundo.fastqrreaderview.common.FrameRateGovernor;
+import dev.facundo.fastqrreaderview.common.ImageLease;
+import dev.facundo.fastqrreaderview.common.PipelineMetrics;
+import dev.facundo.fastqrreaderview.common.PipelineMetrics.Stage;
+import dev.facundo.fastqrreaderview.common.ScanWindow;
 import dev.facundo.fastqrreaderview.common.VisionImageProcessor;
 
 /**
@@ -37,92 +44,431 @@ import dev.facundo.fastqrreaderview.common.VisionImageProcessor;
  * #onSuccess(T, FrameMetadata)} to define what they want to with the detection
  * results and {@link #detectInImage(InputImage)} to specify the detector object.
  *
+ * <p>Up to {@code maxInFlight} frames are detected concurrently. A frame arriving while all slots
+ * are busy is held as pending, replacing any older pending frame, and is submitted as soon as a
+ * slot frees up. Results are delivered in the order frames were submitted, even if ML Kit finishes
+ * them out of order.
+ *
  * @param <T> The type of the detected feature.
  */
 public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
-    // Whether we should ignore process(). This is usually caused by feeding input data faster than
-    // the model can handle.
-    public final AtomicBoolean shouldThrottle = new AtomicBoolean(true);
+    /**
+     * Upper bound for the number of concurrent detections.
+     */
+    public static final int MAX_IN_FLIGHT = 8;
+
+    // Whether process() should run detection at all. Scanning is started and stopped through this.
+    private final AtomicBoolean active = new AtomicBoolean(false);
+
+    private final int maxInFlight;
+
+    // This lock guards all of the member variables below.
+    private final Object lock = new Object();
+    // Frames submitted but not yet delivered. A slot is only freed on delivery, so undelivered
+    // sequence numbers always fit in the completed ring below.
+    private int inFlight;
+    private Frame pendingFrame;
+    private long nextSequence;
+    private long nextDelivery;
+    private final Frame[] completed;
+    // Recycled NV21 buffers for cropped frames.
+    private final ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
+
+    @Nullable
+    private volatile ScanWindow scanWindow;
+
+    @Nullable
+    private volatile FrameRateGovernor frameRateGovernor;
+
+    @Nullable
+    private volatile PipelineMetrics metrics;
 
     public VisionProcessorBase() {
+        this(1);
+    }
+
+    /**
+     * @param maxInFlight number of frames that may be in detection at once, from 1 to {@link
+     *                    #MAX_IN_FLIGHT}
+     */
+    public VisionProcessorBase(int maxInFlight) {
+        if (maxInFlight < 1 || maxInFlight > MAX_IN_FLIGHT) {
+            throw new IllegalArgumentException("maxInFlight must be in [1, " + MAX_IN_FLIGHT + "]: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+        this.completed = new Frame[maxInFlight];
+    }
+
+    /**
+     * Starts or stops running detection on incoming frames. Frames received while inactive are
+     * released right away, and so is a frame still waiting for a slot when detection stops.
+     */
+    public void setActive(boolean active) {
+        this.active.set(active);
+        if (!active) {
+            dropPendingFrame();
+        }
+    }
+
+    public boolean isActive() {
+        return active.get();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @Override
+    public int getMaxFramesHeld() {
+        // Every slot plus the pending frame.
+        return maxInFlight + 1;
+    }
+
+    /**
+     * Reports every detection's latency to {@code governor}, so the camera can slow down to what the
+     * detector sustains.
+     */
+    public void setFrameRateGovernor(@Nullable FrameRateGovernor governor) {
+        frameRateGovernor = governor;
+    }
+
+    /**
+     * Records how long frames spend in each stage of this processor into {@code metrics}.
+     */
+    public void setPipelineMetrics(@Nullable PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Restricts detection to a region of the preview, or removes the restriction if {@code window}
+     * is null. Detected geometry stays relative to the analyzed region; map it back with {@link
+     * FrameMetadata#toFrameX(int)} and {@link FrameMetadata#toFrameY(int)}.
+     */
+    public void setScanWindow(@Nullable ScanWindow window) {
+        scanWindow = window;
     }
 
+    /**
+     * Processes an NV21 frame. Unless it is cropped into a buffer of its own, the frame is detected in
+     * place and its lease is retained until the detection task completes or the frame is dropped, so
+     * the camera can't overwrite it meanwhile.
+     */
     @Override
     public void process(
-            ByteBuffer data, final FrameMetadata frameMetadata) {
-        if (shouldThrottle.get()) {
+            FrameLease lease, final FrameMetadata frameMetadata) {
+        if (!active.get()) {
             return;
         }
+        PipelineMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.record(Stage.QUEUE, frameMetadata.getCaptureNanos(), frameMetadata.getDequeueNanos());
+        }
 
-        InputImage image = InputImage.fromByteBuffer(data.compact(), frameMetadata.getWidth(), frameMetadata.getHeight(), frameMetadata.getRotation(), InputImage.IMAGE_FORMAT_NV21);
-        detectInVisionImage(image, frameMetadata);
+        int width = frameMetadata.getWidth();
+        int height = frameMetadata.getHeight();
+        Frame frame = new Frame();
+        ScanWindow window = scanWindow;
+        if (window != null) {
+            window.computeCrop(width, height, frameMetadata.getRotation());
+            FrameMetadata cropMetadata = cropMetadata(frameMetadata, window);
+            byte[] crop = obtainBuffer(
+                    ScanWindow.nv21Size(cropMetadata.getCropWidth(), cropMetadata.getCropHeight()));
+            ScanWindow.cropNv21(lease.getBuffer(), width, height,
+                    cropMetadata.getCropLeft(), cropMetadata.getCropTop(),
+                    cropMetadata.getCropWidth(), cropMetadata.getCropHeight(), crop);
+            frame.buffer = crop;
+            frame.metadata = cropMetadata;
+            frame.image = InputImage.fromByteArray(crop, cropMetadata.getCropWidth(), cropMetadata.getCropHeight(),
+                    cropMetadata.getRotation(), InputImage.IMAGE_FORMAT_NV21);
+        } else {
+            frame.metadata = frameMetadata;
+            // The camera's buffers start at position 0, so a duplicate is enough; no need to compact.
+            frame.image = InputImage.fromByteBuffer(lease.getBuffer().duplicate(), width, height, frameMetadata.getRotation(), InputImage.IMAGE_FORMAT_NV21);
+            // Only once the image exists, so a failure above doesn't leave the buffer held forever.
+            frame.lease = lease.retain();
+        }
+        frame.builtNanos = System.nanoTime();
+        if (metrics != null) {
+            metrics.record(Stage.BUILD, frameMetadata.getDequeueNanos(), frame.builtNanos);
+        }
+        enqueue(frame);
 //        Bitmap bitmap = Bitmap.createBitmap(frameMetadata.getWidth(), frameMetadata.getHeight(), Bitmap.Config.ARGB_8888);
 //        data.rewind();
 //        bitmap.copyPixelsFromBuffer(data);
-//        byte[] arr = new byte[data.remaining()];
-//        data.get(arr);
-//        detectInVisionImage(InputImage.fromByteArray(arr, frameMetadata.getWidth(), frameMetadata.getHeight(), frameMetadata.getRotation(), InputImage.IMAGE_FORMAT_NV21), frameMetadata);
     }
 
     // Bitmap version
     @Override
     public void process(Bitmap bitmap) {//, final GraphicOverlay graphicOverlay) {
-        if (shouldThrottle.get()) {
+        if (!active.get()) {
             return;
         }
-        detectInVisionImage(InputImage.fromBitmap(bitmap, Surface.ROTATION_0), null);//, graphicOverlay);
+        Frame frame = new Frame();
+        frame.image = InputImage.fromBitmap(bitmap, Surface.ROTATION_0);
+        frame.metadata = new FrameMetadata.Builder()
+                .setWidth(bitmap.getWidth()).setHeight(bitmap.getHeight()).build();
+        enqueue(frame);
     }
 
     /**
-     * Detects feature from given media.Image
-     *
-     * @return created FirebaseVisionImage
+     * Detects feature from given media.Image. The lease is closed once detection completes, or
+     * immediately if the frame is skipped.
      */
     @Override
-    public void process(Image image, int rotation) {//, final GraphicOverlay graphicOverlay) {
-        if (shouldThrottle.get()) {
+    public void process(final ImageLease lease, int rotation) {//, final GraphicOverlay graphicOverlay) {
+        if (!active.get()) {
+            lease.close();
             return;
         }
+        Image image = lease.getImage();
 
+        // camera2 hands images over straight from the reader's callback, so capture and dequeue
+        // coincide.
+        long now = System.nanoTime();
         // This is for overlay display's usage
         FrameMetadata frameMetadata =
                 new FrameMetadata.Builder().setWidth(image.getWidth()).setHeight(image.getHeight
-                        ()).build();
-        InputImage fbVisionImage =
-                InputImage.fromMediaImage(image, rotation);
-        detectInVisionImage(fbVisionImage, frameMetadata);//, graphicOverlay);
-    }
-
-    private void detectInVisionImage(
-            final InputImage image,
-            final FrameMetadata metadata) {
-
-        detectInImage(image)
-                .addOnSuccessListener(
-                        new OnSuccessListener<T>() {
-                            @Override
-                            public void onSuccess(T results) {
-                                shouldThrottle.set(false);
-                                VisionProcessorBase.this.onSuccess(results, metadata);//,
-                                //graphicOverlay);
-                            }
-                        })
-                .addOnFailureListener(
-                        new OnFailureListener() {
-                            @Override
-                            public void onFailure(@NonNull Exception e) {
-                                shouldThrottle.set(false);
-                                VisionProcessorBase.this.onFailure(e);
-                            }
-                        });
-        // Begin throttling until this frame of input has been processed, either in onSuccess or
-        // onFailure.
-        shouldThrottle.set(true);
+                        ()).setRotation(rotation).setCaptureNanos(now).setDequeueNanos(now).build();
+
+        Frame frame = new Frame();
+        ScanWindow window = scanWindow;
+        if (window != null) {
+            // Copying the window out is cheaper than letting ML Kit scan the whole frame, and it
+            // lets the camera have the image back right away.
+            try {
+                window.computeCrop(image.getWidth(), image.getHeight(), rotation);
+                frame.metadata = cropMetadata(frameMetadata, window);
+                frame.buffer = obtainBuffer(ScanWindow.nv21Size(
+                        frame.metadata.getCropWidth(), frame.metadata.getCropHeight()));
+                cropYuv420888(image, frame.metadata, frame.buffer);
+            } finally {
+                lease.close();
+            }
+            frame.image = InputImage.fromByteArray(frame.buffer,
+                    frame.metadata.getCropWidth(), frame.metadata.getCropHeight(),
+                    rotation, InputImage.IMAGE_FORMAT_NV21);
+        } else {
+            try {
+                frame.image = InputImage.fromMediaImage(image, rotation);
+            } catch (RuntimeException e) {
+                lease.close();
+                throw e;
+            }
+            frame.imageLease = lease;
+            frame.metadata = frameMetadata;
+        }
+        frame.builtNanos = System.nanoTime();
+        PipelineMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.record(Stage.BUILD, now, frame.builtNanos);
+        }
+        enqueue(frame);
+    }
+
+    private static FrameMetadata cropMetadata(FrameMetadata frameMetadata, ScanWindow window) {
+        return new FrameMetadata.Builder(frameMetadata)
+                .setCrop(window.getCropLeft(), window.getCropTop(),
+                        window.getCropWidth(), window.getCropHeight())
+                .build();
+    }
+
+    /**
+     * Copies the cropped region of a YUV_420_888 image into {@code dst} as NV21, honoring the row and
+     * pixel strides of each plane.
+     */
+    private static void cropYuv420888(Image image, FrameMetadata crop, byte[] dst) {
+        Image.Plane[] planes = image.getPlanes();
+        int left = crop.getCropLeft();
+        int top = crop.getCropTop();
+        int width = crop.getCropWidth();
+        int height = crop.getCropHeight();
+
+        ByteBuffer y = planes[0].getBuffer().duplicate();
+        int yRowStride = planes[0].getRowStride();
+        int out = 0;
+        for (int row = 0; row < height; row++) {
+            y.position((top + row) * yRowStride + left);
+            y.get(dst, out, width);
+            out += width;
+        }
+
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        int uvRowStride = planes[1].getRowStride();
+        int uvPixelStride = planes[1].getPixelStride();
+        for (int row = 0; row < height / 2; row++) {
+            int rowOffset = (top / 2 + row) * uvRowStride + (left / 2) * uvPixelStride;
+            for (int col = 0; col < width / 2; col++) {
+                int offset = rowOffset + col * uvPixelStride;
+                dst[out++] = v.get(offset);
+                dst[out++] = u.get(offset);
+            }
+        }
+    }
+
+    private byte[] obtainBuffer(int size) {
+        synchronized (lock) {
+            byte[] buffer = freeBuffers.poll();
+            if (buffer != null && buffer.length == size) {
+                return buffer;
+            }
+        }
+        // Either none left or the frame size changed; stale buffers are simply dropped.
+        return new byte[size];
+    }
+
+    /**
+     * Returns the frame's resources: closes the camera image's lease, releases the camera
+     * buffer's lease or recycles the NV21 buffer.
+     */
+    private void release(Frame frame) {
+        if (frame.imageLease != null) {
+            frame.imageLease.close();
+            frame.imageLease = null;
+        }
+        if (frame.lease != null) {
+            frame.lease.release();
+            frame.lease = null;
+        }
+        if (frame.buffer != null) {
+            synchronized (lock) {
+                if (freeBuffers.size() < getMaxFramesHeld()) {
+                    freeBuffers.push(frame.buffer);
+                }
+            }
+            frame.buffer = null;
+        }
+        frame.image = null;
+    }
+
+    /**
+     * Submits the frame if a slot is free, otherwise makes it the pending frame.
+     */
+    private void enqueue(Frame frame) {
+        Frame dropped = null;
+        boolean submit = false;
+        synchronized (lock) {
+            if (inFlight < maxInFlight) {
+                inFlight++;
+                frame.sequence = nextSequence++;
+                submit = true;
+            } else {
+                dropped = pendingFrame;
+                pendingFrame = frame;
+            }
+        }
+        if (dropped != null) {
+            release(dropped);
+        }
+        if (submit) {
+            submit(frame);
+        }
+    }
+
+    private void submit(final Frame frame) {
+        frame.submitNanos = System.nanoTime();
+        PipelineMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.record(Stage.WAIT, frame.builtNanos, frame.submitNanos);
+        }
+        Task<T> task;
+        try {
+            task = detectInImage(frame.image);
+        } catch (RuntimeException e) {
+            complete(frame, null, e);
+            return;
+        }
+        task.addOnCompleteListener(
+                new OnCompleteListener<T>() {
+                    @Override
+                    public void onComplete(@NonNull Task<T> task) {
+                        if (task.isSuccessful()) {
+                            complete(frame, task.getResult(), null);
+                        } else {
+                            Exception e = task.getException();
+                            complete(frame, null, e != null ? e : new Exception("Detection was cancelled"));
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Records a finished frame, delivers every result that is now next in line and refills the freed
+     * slots with the pending frame. Task listeners run on the main thread, so deliveries are
+     * serialized.
+     */
+    private void complete(Frame frame, @Nullable T results, @Nullable Exception error) {
+        frame.completeNanos = System.nanoTime();
+        FrameRateGovernor governor = frameRateGovernor;
+        if (governor != null) {
+            governor.onDetectLatency(frame.completeNanos - frame.submitNanos);
+        }
+        PipelineMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.record(Stage.DETECT, frame.submitNanos, frame.completeNanos);
+        }
+        release(frame);
+
+        List<Frame> ready = null;
+        Frame next = null;
+        synchronized (lock) {
+            frame.results = results;
+            frame.error = error;
+            completed[(int) (frame.sequence % maxInFlight)] = frame;
+
+            Frame head;
+            while ((head = completed[(int) (nextDelivery % maxInFlight)]) != null
+                    && head.sequence == nextDelivery) {
+                completed[(int) (nextDelivery % maxInFlight)] = null;
+                nextDelivery++;
+                inFlight--;
+                if (ready == null) {
+                    ready = new ArrayList<>(maxInFlight);
+                }
+                ready.add(head);
+            }
+
+            if (pendingFrame != null && inFlight < maxInFlight) {
+                next = pendingFrame;
+                pendingFrame = null;
+                inFlight++;
+                next.sequence = nextSequence++;
+            }
+        }
+
+        if (ready != null) {
+            for (Frame done : ready) {
+                if (metrics != null) {
+                    metrics.record(Stage.DELIVER, done.completeNanos, System.nanoTime());
+                }
+                if (done.error != null) {
+                    VisionProcessorBase.this.onFailure(done.error);
+                } else {
+                    VisionProcessorBase.this.onSuccess(done.results, done.metadata);//,
+                    //graphicOverlay);
+                }
+            }
+        }
+        if (next != null) {
+            submit(next);
+        }
     }
 
     @Override
     public void stop() {
+        dropPendingFrame();
+    }
+
+    private void dropPendingFrame() {
+        Frame dropped;
+        synchronized (lock) {
+            dropped = pendingFrame;
+            pendingFrame = null;
+        }
+        if (dropped != null) {
+            release(dropped);
+        }
     }
 
     protected abstract Task<T> detectInImage(InputImage image);
@@ -133,4 +479,28 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 //            @NonNull GraphicOverlay graphicOverlay);
 
     protected abstract void onFailure(@NonNull Exception e);
+
+    /**
+     * A frame travelling through the pipeline together with whatever has to be given back once
+     * detection is done with it.
+     */
+    private final class Frame {
+        InputImage image;
+        FrameMetadata metadata;
+        // Camera image to close, when detecting straight from a camera2 image.
+        @Nullable
+        ImageLease imageLease;
+        // Camera buffer to give back, when detecting straight from a legacy camera frame.
+        @Nullable
+        FrameLease lease;
+        // NV21 buffer to recycle, when the frame was cropped.
+        @Nullable
+        byte[] buffer;
+        long sequence;
+        long builtNanos;
+        long submitNanos;
+        long completeNanos;
+        T results;
+        Exception error;
+    }
 }
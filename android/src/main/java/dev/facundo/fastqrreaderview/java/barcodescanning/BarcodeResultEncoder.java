@@ -0,0 +1,75 @@
+package dev.facundo.fastqrreaderview.java.barcodescanning;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Packs a scanned code into a single byte array, so it crosses the platform channel as one
+ * {@code Uint8List} instead of nested maps that have to be built on the platform thread. Decoded by
+ * {@code ScanResult.decode} on the Dart side.
+ *
+ * <p>Layout, big-endian:
+ *
+ * <pre>
+ *   u8   version (1)
+ *   i32  format, ML Kit's Barcode.FORMAT_* constant
+ *   i32  value type, ML Kit's Barcode.TYPE_* constant
+ *   i64  frame timestamp, System.nanoTime() when the camera delivered the frame, 0 if unknown
+ *   i32  bounding box left, top, right, bottom, in upright full-frame pixels
+ *   u8   corner count n, then n x (i32 x, i32 y) in upright full-frame pixels
+ *   i32  raw byte count m (-1 if none), then m bytes
+ *   i32  raw value UTF-8 byte count k (-1 if none), then k bytes
+ * </pre>
+ */
+public final class BarcodeResultEncoder {
+
+    public static final int VERSION = 1;
+
+    private static final int FIXED_SIZE = 1 + 4 + 4 + 8 + 4 * 4 + 1 + 4 + 4;
+
+    private BarcodeResultEncoder() {
+    }
+
+    /**
+     * @param corners  interleaved x, y pairs, or null if unknown
+     * @param rawBytes the code's raw payload, or null if the format has none
+     * @param rawValue the decoded value, or null
+     */
+    public static byte[] encode(
+            int format, int valueType, long frameTimestampNanos,
+            int left, int top, int right, int bottom,
+            int[] corners, byte[] rawBytes, String rawValue) {
+        int cornerCount = corners != null ? Math.min(corners.length / 2, 255) : 0;
+        byte[] value = rawValue != null ? rawValue.getBytes(StandardCharsets.UTF_8) : null;
+        int size = FIXED_SIZE + cornerCount * 8
+                + (rawBytes != null ? rawBytes.length : 0)
+                + (value != null ? value.length : 0);
+
+        byte[] out = new byte[size];
+        ByteBuffer buffer = ByteBuffer.wrap(out);
+        buffer.put((byte) VERSION);
+        buffer.putInt(format);
+        buffer.putInt(valueType);
+        buffer.putLong(frameTimestampNanos);
+        buffer.putInt(left);
+        buffer.putInt(top);
+        buffer.putInt(right);
+        buffer.putInt(bottom);
+        buffer.put((byte) cornerCount);
+        for (int i = 0; i < cornerCount * 2; i++) {
+            buffer.putInt(corners[i]);
+        }
+        putBytes(buffer, rawBytes);
+        putBytes(buffer, value);
+        return out;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+}
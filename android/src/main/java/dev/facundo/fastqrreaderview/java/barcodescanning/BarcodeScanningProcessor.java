@@ -14,25 +14,29 @@
 package dev.facundo.fastqrreaderview.java.barcodescanning;
 
 import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
 import com.google.android.gms.common.util.ArrayUtils;
+import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
-import com.google.barhopper.deeplearning.BarcodeDetectorClientOptions;
 import com.google.mlkit.vision.barcode.Barcode;
 import com.google.mlkit.vision.barcode.BarcodeScanner;
 import com.google.mlkit.vision.barcode.BarcodeScannerOptions;
 import com.google.mlkit.vision.barcode.BarcodeScanning;
 import com.google.mlkit.vision.common.InputImage;
 
-import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import dev.facundo.fastqrreaderview.common.FocusController;
 import dev.facundo.fastqrreaderview.common.FrameMetadata;
+import dev.facundo.fastqrreaderview.common.ZoomController;
 import dev.facundo.fastqrreaderview.java.VisionProcessorBase;
 
 /**
@@ -42,33 +46,249 @@ public class BarcodeScanningProcessor extends VisionProcessorBase<List<Barcode>>
 
     private static final String TAG = "BarcodeScanProc";
 
-    private final BarcodeScanner scanner;
+    /**
+     * The linear formats, as a mask of ML Kit's format flags. These are the ones prone to misreads
+     * that {@link ConsensusFilter} is meant for.
+     */
+    public static final int LINEAR_FORMATS = Barcode.FORMAT_CODE_128 | Barcode.FORMAT_CODE_39
+            | Barcode.FORMAT_CODE_93 | Barcode.FORMAT_CODABAR | Barcode.FORMAT_EAN_13
+            | Barcode.FORMAT_EAN_8 | Barcode.FORMAT_ITF | Barcode.FORMAT_UPC_A
+            | Barcode.FORMAT_UPC_E;
+
+    // One client per in-flight slot so concurrent frames don't queue up behind each other inside
+    // ML Kit. Swapped as a whole by updateFormats() while frames are being processed.
+    private BarcodeScanner[] scanners;
+    private final Task<List<Barcode>>[] lastTasks;
+    private int nextScanner;
 
     public OnCodeScanned callback;
 
-    public BarcodeScanningProcessor(ArrayList<Integer> reqFormats) {
-        // Note that if you know which format of barcode your app is dealing with, detection will be
-        // faster to specify the supported barcode formats one by one, e.g.
-        // new FirebaseVisionBarcodeDetectorOptions.Builder()
-        //     .setBarcodeFormats(FirebaseVisionBarcode.FORMAT_QR_CODE)
-        //     .build();
-        int[] additionalFormats = Arrays.copyOfRange(ArrayUtils.toPrimitiveArray(reqFormats), 1, reqFormats.size());
+    // Only touched from onSuccess() and the setters and clear methods below, all on the main thread.
+    private ConsensusFilter consensus;
+    private int consensusFormats;
+    private final ArrayList<Barcode> confirmed = new ArrayList<>();
+    private BarcodeTracker tracker;
+    private OnTrackUpdate trackCallback;
+    private List<Barcode> trackedBarcodes;
+    private FrameMetadata trackedMetadata;
+    private FocusController focusController;
+    private ZoomController zoomController;
+    private final BarcodeTracker.Listener trackListener = new BarcodeTracker.Listener() {
+        @Override
+        public void onAppeared(int trackId, int index) {
+            trackCallback.onAppeared(trackId, trackedBarcodes.get(index), trackedMetadata);
+        }
+
+        @Override
+        public void onMoved(int trackId, int index) {
+            trackCallback.onMoved(trackId, trackedBarcodes.get(index), trackedMetadata);
+        }
 
-        BarcodeScannerOptions options =
-                new BarcodeScannerOptions.Builder().setBarcodeFormats(Barcode.FORMAT_PDF417)
-//                        .setBarcodeFormats(
-//                                ArrayUtils.toPrimitiveArray(reqFormats)[0], additionalFormats)
-                        .build();
+        @Override
+        public void onDisappeared(int trackId) {
+            trackCallback.onDisappeared(trackId);
+        }
+    };
 
-        scanner = BarcodeScanning.getClient(options);
-//        detector = FirebaseVision.getInstance().getVisionBarcodeDetector(new FirebaseVisionBarcodeDetectorOptions.Builder()
-//                // setBarcodeFormats is quite weird. I have to do all of these just to pass a bunch of ints
-//                .setBarcodeFormats(ArrayUtils.toPrimitiveArray(reqFormats)[0], additionalFormats)
-//                .build());
+    public BarcodeScanningProcessor(List<Integer> reqFormats) {
+        this(reqFormats, 1);
     }
 
-    @Override
-    public void stop() {
+    @SuppressWarnings("unchecked")
+    public BarcodeScanningProcessor(List<Integer> reqFormats, int maxInFlight) {
+        super(maxInFlight);
+        scanners = createScanners(reqFormats, maxInFlight);
+        lastTasks = new Task[maxInFlight];
+    }
+
+    /**
+     * Restricts detection to the given formats without touching the camera. Each previous scanner is
+     * closed once the frame it is currently working on, if any, has been processed.
+     */
+    public void updateFormats(List<Integer> reqFormats) {
+        BarcodeScanner[] newScanners = createScanners(reqFormats, getMaxInFlight());
+        final BarcodeScanner[] oldScanners;
+        final Task<List<Barcode>>[] pendingTasks;
+        synchronized (this) {
+            oldScanners = scanners;
+            pendingTasks = lastTasks.clone();
+            scanners = newScanners;
+        }
+        for (int i = 0; i < oldScanners.length; i++) {
+            final BarcodeScanner oldScanner = oldScanners[i];
+            Task<List<Barcode>> pendingTask = pendingTasks[i];
+            if (pendingTask == null || pendingTask.isComplete()) {
+                closeScanner(oldScanner);
+            } else {
+                pendingTask.addOnCompleteListener(new OnCompleteListener<List<Barcode>>() {
+                    @Override
+                    public void onComplete(@NonNull Task<List<Barcode>> task) {
+                        closeScanner(oldScanner);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Only passes on codes of the given formats once {@code filter} has confirmed them; other
+     * formats pass straight through. Null turns the filter off. Call on the main thread.
+     *
+     * @param formats mask of ML Kit format flags to filter, e.g. {@link #LINEAR_FORMATS}
+     */
+    public void setConsensusFilter(ConsensusFilter filter, int formats) {
+        consensus = filter;
+        consensusFormats = formats;
+    }
+
+    /** Forgets the votes collected so far, e.g. when a new scan starts. Call on the main thread. */
+    public void clearConsensus() {
+        if (consensus != null) {
+            consensus.clear();
+        }
+    }
+
+    /**
+     * Runs every frame's barcodes through {@code tracker} and reports the changes to {@code
+     * callback}, or stops tracking if {@code tracker} is null. Call on the main thread.
+     */
+    public void setTracker(BarcodeTracker tracker, OnTrackUpdate callback) {
+        this.tracker = tracker;
+        this.trackCallback = callback;
+    }
+
+    /**
+     * Points the camera's focus at the codes of every frame, or stops doing so if {@code
+     * controller} is null. Call on the main thread.
+     */
+    public void setFocusController(FocusController controller) {
+        this.focusController = controller;
+    }
+
+    /**
+     * Zooms in on small codes of every frame, or stops doing so if {@code controller} is null. Call
+     * on the main thread.
+     */
+    public void setZoomController(ZoomController controller) {
+        this.zoomController = controller;
+    }
+
+    /** Ends all tracks, e.g. when scanning stops. Call on the main thread. */
+    public void clearTracks() {
+        if (tracker != null) {
+            tracker.clear(trackListener);
+            trackCallback.onFrameTracked();
+        }
+    }
+
+    /**
+     * Returns the bytes identifying a code's value. Falls back to the decoded value for formats ML Kit
+     * reports no raw bytes for.
+     */
+    public static byte[] valueBytes(Barcode barcode) {
+        byte[] rawBytes = barcode.getRawBytes();
+        if (rawBytes != null) {
+            return rawBytes;
+        }
+        String rawValue = barcode.getRawValue();
+        return rawValue != null ? rawValue.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+
+    /**
+     * Returns the decoded value a code is tracked by. ML Kit keeps it as a field, so unlike {@link
+     * #valueBytes} this doesn't copy or encode anything.
+     */
+    private static String trackValue(Barcode barcode) {
+        String rawValue = barcode.getRawValue();
+        return rawValue != null ? rawValue : "";
+    }
+
+    /**
+     * Hands the largest code's box, in full-frame coordinates, to the focus and zoom controllers.
+     */
+    private void steerCamera(List<Barcode> barcodes, FrameMetadata frameMetadata) {
+        Rect largest = null;
+        for (int i = 0; i < barcodes.size(); i++) {
+            Rect box = barcodes.get(i).getBoundingBox();
+            if (box != null && (largest == null
+                    || box.width() * box.height() > largest.width() * largest.height())) {
+                largest = box;
+            }
+        }
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (largest == null) {
+            if (focusController != null) {
+                focusController.onNothingSeen(frameMetadata, now);
+            }
+            if (zoomController != null) {
+                zoomController.onNothingSeen(now);
+            }
+            return;
+        }
+        int left = frameMetadata.toFrameX(largest.left);
+        int top = frameMetadata.toFrameY(largest.top);
+        int right = frameMetadata.toFrameX(largest.right);
+        int bottom = frameMetadata.toFrameY(largest.bottom);
+        if (focusController != null) {
+            focusController.onCodeSeen(left, top, right, bottom, frameMetadata, now);
+        }
+        if (zoomController != null) {
+            boolean sideways = frameMetadata.getRotation() % 180 != 0;
+            zoomController.onCodeSeen(left, top, right, bottom,
+                    sideways ? frameMetadata.getHeight() : frameMetadata.getWidth(),
+                    sideways ? frameMetadata.getWidth() : frameMetadata.getHeight(),
+                    now);
+        }
+    }
+
+    private void track(List<Barcode> barcodes, FrameMetadata frameMetadata) {
+        tracker.beginFrame();
+        for (int i = 0; i < barcodes.size(); i++) {
+            Barcode barcode = barcodes.get(i);
+            Rect box = barcode.getBoundingBox();
+            // Track in full-frame coordinates so moving the scan window doesn't look like motion.
+            if (box != null) {
+                tracker.add(barcode.getFormat(), trackValue(barcode),
+                        frameMetadata.toFrameX(box.left), frameMetadata.toFrameY(box.top),
+                        frameMetadata.toFrameX(box.right), frameMetadata.toFrameY(box.bottom));
+            } else {
+                // An empty box: the tracker matches the code by value alone.
+                tracker.add(barcode.getFormat(), trackValue(barcode), 0, 0, 0, 0);
+            }
+        }
+        trackedBarcodes = barcodes;
+        trackedMetadata = frameMetadata;
+        tracker.endFrame(trackListener);
+        trackedBarcodes = null;
+        trackedMetadata = null;
+        trackCallback.onFrameTracked();
+    }
+
+    private static BarcodeScanner[] createScanners(List<Integer> reqFormats, int count) {
+        BarcodeScanner[] scanners = new BarcodeScanner[count];
+        for (int i = 0; i < count; i++) {
+            scanners[i] = createScanner(reqFormats);
+        }
+        return scanners;
+    }
+
+    /**
+     * Builds a scanner for the requested formats. Every format left out is work ML Kit does not have
+     * to do on each frame, so an empty list is the only case that falls back to all formats.
+     */
+    static BarcodeScanner createScanner(List<Integer> reqFormats) {
+        BarcodeScannerOptions.Builder builder = new BarcodeScannerOptions.Builder();
+        if (reqFormats.isEmpty()) {
+            builder.setBarcodeFormats(Barcode.FORMAT_ALL_FORMATS);
+        } else {
+            // setBarcodeFormats is quite weird. I have to do all of these just to pass a bunch of ints
+            int[] formats = ArrayUtils.toPrimitiveArray(reqFormats);
+            builder.setBarcodeFormats(formats[0], Arrays.copyOfRange(formats, 1, formats.length));
+        }
+        return BarcodeScanning.getClient(builder.build());
+    }
+
+    private static void closeScanner(BarcodeScanner scanner) {
         try {
             scanner.close();
         } catch (Exception e) {
@@ -76,20 +296,27 @@ public class BarcodeScanningProcessor extends VisionProcessorBase<List<Barcode>>
         }
     }
 
+    @Override
+    public void stop() {
+        super.stop();
+        BarcodeScanner[] current;
+        synchronized (this) {
+            current = scanners;
+        }
+        for (BarcodeScanner scanner : current) {
+            closeScanner(scanner);
+        }
+    }
+
 
     @Override
     protected Task<List<Barcode>> detectInImage(InputImage image) {
-//        ByteBuffer buf = image.getByteBuffer();
-//        Log.d("Asd", Integer.toString( buf.remaining()));
-//        byte[] arr = new byte[buf.remaining()];
-//        buf.get(arr);
-//        InputImage iii = InputImage.fromByteArray(arr,
-//                image.getWidth(),
-//                image.getHeight(),
-//                image.getRotationDegrees(),
-//                image.getFormat());
-
-        return scanner.process(image);
+        synchronized (this) {
+            int index = nextScanner;
+            nextScanner = (nextScanner + 1) % scanners.length;
+            lastTasks[index] = scanners[index].process(image);
+            return lastTasks[index];
+        }
     }
 
     @Override
@@ -99,13 +326,40 @@ public class BarcodeScanningProcessor extends VisionProcessorBase<List<Barcode>>
 //      @NonNull GraphicOverlay graphicOverlay) {
 //    graphicOverlay.clear();
 
-        for (int i = 0; i < barcodes.size(); ++i) {
+        if ((focusController != null || zoomController != null) && isActive()) {
+            // Before the consensus filter: a code still waiting for votes is exactly one that needs
+            // a sharper or closer picture.
+            steerCamera(barcodes, frameMetadata);
+        }
+        if (consensus != null) {
+            barcodes = filterConfirmed(barcodes);
+        }
+        if (tracker != null && isActive()) {
+            // Frames without codes count too: they are what makes tracks disappear. Frames finishing
+            // after scanning stopped are left out, since stopping already ended all tracks.
+            track(barcodes, frameMetadata);
+        }
+        if (barcodes.isEmpty()) {
+            return;
+        }
+        callback.onCodesScanned(barcodes, frameMetadata);
+    }
+
+    /**
+     * Returns the barcodes that are either not subject to consensus or have enough votes. The
+     * returned list is reused for the next frame.
+     */
+    private List<Barcode> filterConfirmed(List<Barcode> barcodes) {
+        consensus.beginFrame();
+        confirmed.clear();
+        for (int i = 0; i < barcodes.size(); i++) {
             Barcode barcode = barcodes.get(i);
-            Log.d("BARCODE!", barcode.getRawValue());
-            callback.onCodeScanned(barcode);
-//      BarcodeGraphic barcodeGraphic = new BarcodeGraphic(graphicOverlay, barcode);
-//      graphicOverlay.add(barcodeGraphic);
+            if ((barcode.getFormat() & consensusFormats) == 0
+                    || consensus.vote(barcode.getFormat(), valueBytes(barcode))) {
+                confirmed.add(barcode);
+            }
         }
+        return confirmed;
     }
 
     @Override
@@ -0,0 +1,223 @@
+package dev.facundo.fastqrreaderview.java.barcodescanning;
+
+import java.util.Arrays;
+
+/**
+ * Follows codes from frame to frame and gives each a stable track ID, so consumers only hear when a
+ * code appears, moves or disappears instead of getting every frame's full result list.
+ *
+ * <p>A detection continues a track when it has the same format and value and its bounding box
+ * overlaps the track's by at least {@code minIou}; overlap is what keeps two identical labels in
+ * view apart. Detections without a box, given as an empty one, continue a track of the same format
+ * and value without moving it, and a track started without a box takes the first box it matches.
+ * A track that goes unmatched for more than {@code maxMissedFrames} frames disappears,
+ * which rides out frames where the detector briefly misses a code.
+ *
+ * <p>All state lives in arrays sized up front and values are compared as the strings the detector
+ * already holds, so matching a frame allocates nothing. Only listeners hearing about a change may
+ * allocate. Feed a frame with {@link #beginFrame()}, one {@link #add} per detection and {@link
+ * #endFrame(Listener)}. Not thread-safe; use from one thread, such as the one results are
+ * delivered on.
+ */
+public class BarcodeTracker {
+
+    public interface Listener {
+        /** A new track started with the detection at {@code index}, in {@link #add} order. */
+        void onAppeared(int trackId, int index);
+
+        /** The track's box moved noticeably since it was last reported. */
+        void onMoved(int trackId, int index);
+
+        void onDisappeared(int trackId);
+    }
+
+    private final float minIou;
+    private final float minMoveIou;
+    private final int maxMissedFrames;
+
+    // Tracks, by slot.
+    private final boolean[] live;
+    private final int[] trackIds;
+    private final int[] formats;
+    private final String[] values;
+    private final int[] lefts;
+    private final int[] tops;
+    private final int[] rights;
+    private final int[] bottoms;
+    private final int[] missed;
+    private final boolean[] matched;
+
+    // Detections of the current frame.
+    private final int[] detFormats;
+    private final String[] detValues;
+    private final int[] detLefts;
+    private final int[] detTops;
+    private final int[] detRights;
+    private final int[] detBottoms;
+    private int detCount;
+
+    private int nextTrackId = 1;
+
+    /**
+     * @param maxTracks       most codes followed at once; further codes are ignored until a slot
+     *                        frees up
+     * @param minIou          overlap a detection needs with a track's last reported box to continue
+     *                        it
+     * @param minMoveIou      overlap below which a continued track is reported as moved
+     * @param maxMissedFrames frames a track may go undetected before it disappears
+     */
+    public BarcodeTracker(int maxTracks, float minIou, float minMoveIou, int maxMissedFrames) {
+        if (maxTracks < 1) {
+            throw new IllegalArgumentException("maxTracks must be at least 1: " + maxTracks);
+        }
+        this.minIou = minIou;
+        this.minMoveIou = minMoveIou;
+        this.maxMissedFrames = maxMissedFrames;
+        live = new boolean[maxTracks];
+        trackIds = new int[maxTracks];
+        formats = new int[maxTracks];
+        values = new String[maxTracks];
+        lefts = new int[maxTracks];
+        tops = new int[maxTracks];
+        rights = new int[maxTracks];
+        bottoms = new int[maxTracks];
+        missed = new int[maxTracks];
+        matched = new boolean[maxTracks];
+        detFormats = new int[maxTracks];
+        detValues = new String[maxTracks];
+        detLefts = new int[maxTracks];
+        detTops = new int[maxTracks];
+        detRights = new int[maxTracks];
+        detBottoms = new int[maxTracks];
+    }
+
+    public void beginFrame() {
+        detCount = 0;
+    }
+
+    /**
+     * Adds a detection of the current frame. {@code value} is kept until the track ends. Returns
+     * false if the frame already holds as many detections as there are track slots.
+     */
+    public boolean add(int format, String value, int left, int top, int right, int bottom) {
+        if (detCount == detFormats.length) {
+            return false;
+        }
+        detFormats[detCount] = format;
+        detValues[detCount] = value;
+        detLefts[detCount] = left;
+        detTops[detCount] = top;
+        detRights[detCount] = right;
+        detBottoms[detCount] = bottom;
+        detCount++;
+        return true;
+    }
+
+    /** Matches the frame's detections against the tracks and reports what changed. */
+    public void endFrame(Listener listener) {
+        Arrays.fill(matched, false);
+
+        for (int d = 0; d < detCount; d++) {
+            int best = -1;
+            float bestIou = minIou;
+            for (int t = 0; t < live.length; t++) {
+                if (!live[t] || matched[t] || formats[t] != detFormats[d]
+                        || !values[t].equals(detValues[d])) {
+                    continue;
+                }
+                float iou;
+                if (!hasBox(detLefts[d], detTops[d], detRights[d], detBottoms[d])) {
+                    // Nothing to compare; the value alone decides and the track keeps its box.
+                    iou = 1;
+                } else if (!hasBox(lefts[t], tops[t], rights[t], bottoms[t])) {
+                    // Just enough to match, and little enough to be reported as moved to the box.
+                    iou = minIou;
+                } else {
+                    iou = iou(t, d);
+                }
+                if (iou >= bestIou) {
+                    best = t;
+                    bestIou = iou;
+                }
+            }
+
+            if (best >= 0) {
+                matched[best] = true;
+                missed[best] = 0;
+                if (bestIou < minMoveIou) {
+                    setBox(best, d);
+                    listener.onMoved(trackIds[best], d);
+                }
+                continue;
+            }
+
+            int slot = freeSlot();
+            if (slot < 0) {
+                continue;
+            }
+            live[slot] = true;
+            matched[slot] = true;
+            missed[slot] = 0;
+            trackIds[slot] = nextTrackId++;
+            formats[slot] = detFormats[d];
+            values[slot] = detValues[d];
+            setBox(slot, d);
+            listener.onAppeared(trackIds[slot], d);
+        }
+
+        for (int t = 0; t < live.length; t++) {
+            if (live[t] && !matched[t] && ++missed[t] > maxMissedFrames) {
+                live[t] = false;
+                values[t] = null;
+                listener.onDisappeared(trackIds[t]);
+            }
+        }
+        for (int d = 0; d < detCount; d++) {
+            detValues[d] = null;
+        }
+    }
+
+    /** Ends every track, reporting each as disappeared. */
+    public void clear(Listener listener) {
+        for (int t = 0; t < live.length; t++) {
+            if (live[t]) {
+                live[t] = false;
+                values[t] = null;
+                listener.onDisappeared(trackIds[t]);
+            }
+        }
+    }
+
+    private int freeSlot() {
+        for (int t = 0; t < live.length; t++) {
+            if (!live[t]) {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    private void setBox(int t, int d) {
+        lefts[t] = detLefts[d];
+        tops[t] = detTops[d];
+        rights[t] = detRights[d];
+        bottoms[t] = detBottoms[d];
+    }
+
+    private static boolean hasBox(int left, int top, int right, int bottom) {
+        return right > left && bottom > top;
+    }
+
+    private float iou(int t, int d) {
+        long iw = Math.min(rights[t], detRights[d]) - Math.max(lefts[t], detLefts[d]);
+        long ih = Math.min(bottoms[t], detBottoms[d]) - Math.max(tops[t], detTops[d]);
+        if (iw <= 0 || ih <= 0) {
+            return 0;
+        }
+        long intersection = iw * ih;
+        long union = (long) (rights[t] - lefts[t]) * (bottoms[t] - tops[t])
+                + (long) (detRights[d] - detLefts[d]) * (detBottoms[d] - detTops[d])
+                - intersection;
+        return union > 0 ? (float) intersection / union : 0;
+    }
+}
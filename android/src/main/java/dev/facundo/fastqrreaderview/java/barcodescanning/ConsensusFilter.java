@@ -0,0 +1,92 @@
+package dev.facundo.fastqrreaderview.java.barcodescanning;
+
+import java.util.Arrays;
+
+/**
+ * Holds back a code until it has been read the same way in {@code votes} of the last {@code window}
+ * frames. Linear symbologies read at an angle occasionally decode to a wrong but valid value on a
+ * single frame; a misread rarely repeats, so requiring agreement filters it out.
+ *
+ * <p>Each candidate value keeps one bit per frame in a 64-bit ring, so a frame costs a shift per
+ * candidate and a vote a popcount. Candidates live in a fixed number of slots; when all are taken,
+ * the one seen least recently makes way. Not thread-safe.
+ */
+public class ConsensusFilter {
+
+    private final int votes;
+    private final long windowMask;
+
+    private final int[] formats;
+    private final byte[][] values;
+    private final long[] seen;
+
+    /**
+     * @param votes      frames a value must be read in before it passes
+     * @param window     frames the votes must fall within, at most 64
+     * @param candidates number of values tracked at once
+     */
+    public ConsensusFilter(int votes, int window, int candidates) {
+        if (window < 1 || window > 64) {
+            throw new IllegalArgumentException("window must be in [1, 64]: " + window);
+        }
+        if (votes < 1 || votes > window) {
+            throw new IllegalArgumentException("votes must be in [1, " + window + "]: " + votes);
+        }
+        if (candidates < 1) {
+            throw new IllegalArgumentException("candidates must be at least 1: " + candidates);
+        }
+        this.votes = votes;
+        this.windowMask = window == 64 ? -1L : (1L << window) - 1;
+        formats = new int[candidates];
+        values = new byte[candidates][];
+        seen = new long[candidates];
+    }
+
+    /** Advances the window by one frame. Call once per analyzed frame, even one without codes. */
+    public void beginFrame() {
+        for (int i = 0; i < seen.length; i++) {
+            seen[i] = (seen[i] << 1) & windowMask;
+            if (seen[i] == 0) {
+                values[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Counts a read of the value in the current frame and returns whether it now has enough votes.
+     * {@code value} is kept by reference, so it must not be modified afterwards.
+     */
+    public boolean vote(int format, byte[] value) {
+        int slot = -1;
+        int oldest = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                if (slot < 0) {
+                    slot = i;
+                }
+                continue;
+            }
+            if (formats[i] == format && Arrays.equals(values[i], value)) {
+                seen[i] |= 1;
+                return Long.bitCount(seen[i]) >= votes;
+            }
+            // Bit 0 is the current frame, so the least recently seen value has the most trailing
+            // zeros.
+            if (Long.numberOfTrailingZeros(seen[i]) > Long.numberOfTrailingZeros(seen[oldest])) {
+                oldest = i;
+            }
+        }
+        if (slot < 0) {
+            slot = oldest;
+        }
+        formats[slot] = format;
+        values[slot] = value;
+        seen[slot] = 1;
+        return votes <= 1;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        Arrays.fill(seen, 0);
+    }
+}
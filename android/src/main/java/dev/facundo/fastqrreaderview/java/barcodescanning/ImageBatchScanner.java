@@ -0,0 +1,96 @@
+package dev.facundo.fastqrreaderview.java.barcodescanning;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scans a list of image files on a fixed number of workers.
+ *
+ * <p>Each worker owns one {@link StillImageScanner}, and with it one ML Kit client, for the whole
+ * batch, and keeps claiming the next unscanned file until none are left. So however long the list
+ * is, at most {@code workers} images are being decoded at once and only {@code workers} clients
+ * are ever created.
+ */
+public class ImageBatchScanner {
+
+    private static final String TAG = "ImageBatchScanner";
+
+    public interface Listener {
+        /**
+         * Called on a worker thread once per file, in completion order rather than list order.
+         *
+         * @param error     why the file could not be scanned, or null
+         * @param completed number of files finished so far, this one included
+         */
+        void onFileScanned(int index, String path, List<byte[]> results, Exception error, int completed);
+
+        /** Called on a worker thread once all workers have stopped. */
+        void onFinished(boolean cancelled);
+    }
+
+    private final List<String> paths;
+    private final List<Integer> formats;
+    private final Listener listener;
+
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger runningWorkers = new AtomicInteger();
+    private volatile boolean cancelled;
+
+    /**
+     * @param formats ML Kit format constants to look for, all formats if empty
+     */
+    public ImageBatchScanner(List<String> paths, List<Integer> formats, Listener listener) {
+        this.paths = paths;
+        this.formats = formats;
+        this.listener = listener;
+    }
+
+    /** Starts up to {@code workers} workers on {@code executor}, never more than there are files. */
+    public void start(Executor executor, int workers) {
+        int count = Math.max(1, Math.min(workers, paths.size()));
+        runningWorkers.set(count);
+        for (int i = 0; i < count; i++) {
+            executor.execute(new Worker());
+        }
+    }
+
+    /** Stops handing out files. Images already being scanned still finish. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            StillImageScanner scanner = new StillImageScanner(formats);
+            try {
+                int index;
+                while (!cancelled && (index = nextIndex.getAndIncrement()) < paths.size()) {
+                    String path = paths.get(index);
+                    List<byte[]> results = null;
+                    Exception error = null;
+                    try {
+                        results = scanner.scanFile(path);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancelled = true;
+                        error = e;
+                    } catch (Exception e) {
+                        Log.w(TAG, "Could not scan " + path, e);
+                        error = e;
+                    }
+                    listener.onFileScanned(index, path, results, error, completed.incrementAndGet());
+                }
+            } finally {
+                scanner.close();
+                if (runningWorkers.decrementAndGet() == 0) {
+                    listener.onFinished(cancelled);
+                }
+            }
+        }
+    }
+}
@@ -2,6 +2,16 @@ package dev.facundo.fastqrreaderview.java.barcodescanning;
 
 import com.google.mlkit.vision.barcode.Barcode;
 
+import java.util.List;
+
+import dev.facundo.fastqrreaderview.common.FrameMetadata;
+
 public interface OnCodeScanned {
-    void onCodeScanned(Barcode barcode);
+    /**
+     * Called once for every frame with at least one detected barcode, with all of that frame's
+     * barcodes. Their geometry is relative to the analyzed region of the frame; use {@link
+     * FrameMetadata#toFrameX(int)} and {@link FrameMetadata#toFrameY(int)} to map it to the full
+     * frame.
+     */
+    void onCodesScanned(List<Barcode> barcodes, FrameMetadata frameMetadata);
 }
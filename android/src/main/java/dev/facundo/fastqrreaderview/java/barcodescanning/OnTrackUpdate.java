@@ -0,0 +1,20 @@
+package dev.facundo.fastqrreaderview.java.barcodescanning;
+
+import com.google.mlkit.vision.barcode.Barcode;
+
+import dev.facundo.fastqrreaderview.common.FrameMetadata;
+
+/**
+ * Receives the changes {@link BarcodeTracker} finds in each frame. Geometry is relative to the
+ * analyzed region, as for {@link OnCodeScanned}.
+ */
+public interface OnTrackUpdate {
+    void onAppeared(int trackId, Barcode barcode, FrameMetadata frameMetadata);
+
+    void onMoved(int trackId, Barcode barcode, FrameMetadata frameMetadata);
+
+    void onDisappeared(int trackId);
+
+    /** Called after the events of each tracked frame, so they can be sent together. */
+    void onFrameTracked();
+}
@@ -0,0 +1,249 @@
+package dev.facundo.fastqrreaderview.java.barcodescanning;
+
+import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.hardware.Camera;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.common.images.Size;
+import com.google.mlkit.vision.barcode.Barcode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dev.facundo.fastqrreaderview.common.CameraCapabilityCache;
+import dev.facundo.fastqrreaderview.common.CameraProfile;
+import dev.facundo.fastqrreaderview.common.CameraSource;
+import dev.facundo.fastqrreaderview.common.FrameMetadata;
+import dev.facundo.fastqrreaderview.common.PipelineMetrics;
+import dev.facundo.fastqrreaderview.preference.PreferenceUtils;
+
+/**
+ * Finds the legacy camera profile that reads codes best on this device, by running the real
+ * camera and detector with each candidate while the camera points at a typical code.
+ *
+ * <p>Candidates are up to {@link #MAX_SIZES} preview sizes with a short side between {@link
+ * #MIN_SHORT_SIDE} and {@link #MAX_SHORT_SIDE}, each with the frame rate range closest to 30 fps
+ * and the one closest to 15 fps, whose longer exposures can read more in dim light. Each runs for
+ * {@link #SETTLE_MS} so exposure and focus settle, then is measured for {@link #MEASURE_MS}. The
+ * winner decodes codes in the most frames per second; candidates within {@link
+ * #DECODE_RATE_TOLERANCE} of it are close enough that the one with the lowest latency wins
+ * instead. It is saved for the device model and used by {@link CameraSource} from then on.
+ *
+ * <p>Takes around 20 seconds, during which the camera is in use. Call {@link #run()} off the main
+ * thread.
+ */
+public class ScanCalibrator {
+
+    private static final String TAG = "ScanCalibrator";
+
+    private static final int MAX_SIZES = 4;
+    private static final int MIN_SHORT_SIDE = 480;
+    private static final int MAX_SHORT_SIDE = 1080;
+    private static final float[] CANDIDATE_FPS = {30.0f, 15.0f};
+    private static final long SETTLE_MS = 700;
+    private static final long MEASURE_MS = 1500;
+    private static final float DECODE_RATE_TOLERANCE = 0.9f;
+
+    private final Activity activity;
+    private final int facing;
+    private final List<Integer> formats;
+
+    private final AtomicInteger decodedFrames = new AtomicInteger();
+
+    /** How one candidate did. */
+    public static class Measurement {
+        public final CameraProfile profile;
+        /** Frames the detector processed per second. */
+        public final float frameRate;
+        /** Frames with at least one code per second. */
+        public final float decodeRate;
+        /** Median time from the camera callback until detection completed, in milliseconds. */
+        public final double latencyMs;
+
+        Measurement(CameraProfile profile, float frameRate, float decodeRate, double latencyMs) {
+            this.profile = profile;
+            this.frameRate = frameRate;
+            this.decodeRate = decodeRate;
+            this.latencyMs = latencyMs;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("previewWidth", profile.previewSize.getWidth());
+            map.put("previewHeight", profile.previewSize.getHeight());
+            map.put("minFps", profile.minFps / 1000.0);
+            map.put("maxFps", profile.maxFps / 1000.0);
+            map.put("frameRate", (double) frameRate);
+            map.put("decodeRate", (double) decodeRate);
+            map.put("latencyMs", latencyMs);
+            return map;
+        }
+    }
+
+    /**
+     * @param facing  {@link CameraSource#CAMERA_FACING_BACK} or {@link CameraSource#CAMERA_FACING_FRONT}
+     * @param formats ML Kit format constants to look for, all formats if empty
+     */
+    public ScanCalibrator(Activity activity, int facing, List<Integer> formats) {
+        this.activity = activity;
+        this.facing = facing;
+        this.formats = formats;
+    }
+
+    /**
+     * Measures every candidate and saves the best one. Returns its measurement, or null if no
+     * candidate decoded a code, in which case nothing is saved.
+     *
+     * @throws IOException if the camera could not be opened
+     */
+    @SuppressLint("MissingPermission")
+    @Nullable
+    public Measurement run() throws IOException, InterruptedException {
+        BarcodeScanningProcessor processor = new BarcodeScanningProcessor(formats);
+        PipelineMetrics metrics = new PipelineMetrics();
+        processor.setPipelineMetrics(metrics);
+        processor.callback = new OnCodeScanned() {
+            @Override
+            public void onCodesScanned(List<Barcode> barcodes, FrameMetadata frameMetadata) {
+                decodedFrames.incrementAndGet();
+            }
+        };
+        processor.setActive(true);
+
+        CameraSource cameraSource = new CameraSource(activity);
+        cameraSource.setFacing(facing);
+        cameraSource.setMachineLearningFrameProcessor(processor);
+        try {
+            // A first run with the current settings loads the detector, so the first candidate
+            // isn't charged for it, and tells which camera and capabilities to work with.
+            cameraSource.start();
+            Thread.sleep(SETTLE_MS);
+            cameraSource.stop();
+            int cameraId = cameraSource.getCameraId();
+            CameraCapabilityCache.LegacyCapabilities capabilities = cameraSource.getCapabilities();
+            if (capabilities == null) {
+                throw new IOException("Could not read camera capabilities.");
+            }
+
+            Measurement best = null;
+            for (CameraProfile candidate : selectCandidates(capabilities)) {
+                Measurement measurement = measure(cameraSource, metrics, candidate);
+                Log.d(TAG, "Calibration candidate " + candidate + ": " + measurement.decodeRate
+                        + " decodes/s, " + measurement.frameRate + " frames/s, " + measurement.latencyMs + " ms");
+                if (best == null || isBetter(measurement, best)) {
+                    best = measurement;
+                }
+            }
+            if (best == null || best.decodeRate == 0) {
+                return null;
+            }
+            PreferenceUtils.saveCalibratedProfile(activity, cameraId, best.profile);
+            return best;
+        } finally {
+            cameraSource.setProfile(null);
+            cameraSource.release();
+        }
+    }
+
+    @SuppressLint("MissingPermission")
+    private Measurement measure(CameraSource cameraSource, PipelineMetrics metrics, CameraProfile candidate)
+            throws IOException, InterruptedException {
+        cameraSource.setProfile(candidate);
+        cameraSource.start();
+        try {
+            Thread.sleep(SETTLE_MS);
+            metrics.reset();
+            decodedFrames.set(0);
+            Thread.sleep(MEASURE_MS);
+            float seconds = MEASURE_MS / 1000.0f;
+            return new Measurement(candidate,
+                    metrics.get(PipelineMetrics.Stage.DETECT).getCount() / seconds,
+                    decodedFrames.get() / seconds,
+                    medianMillis(metrics, PipelineMetrics.Stage.QUEUE)
+                            + medianMillis(metrics, PipelineMetrics.Stage.BUILD)
+                            + medianMillis(metrics, PipelineMetrics.Stage.WAIT)
+                            + medianMillis(metrics, PipelineMetrics.Stage.DETECT));
+        } finally {
+            cameraSource.stop();
+        }
+    }
+
+    private static double medianMillis(PipelineMetrics metrics, PipelineMetrics.Stage stage) {
+        return metrics.get(stage).getPercentileMillis(50);
+    }
+
+    private static boolean isBetter(Measurement candidate, Measurement best) {
+        if (candidate.decodeRate * DECODE_RATE_TOLERANCE > best.decodeRate) {
+            return true;
+        }
+        if (best.decodeRate * DECODE_RATE_TOLERANCE > candidate.decodeRate) {
+            return false;
+        }
+        return candidate.latencyMs < best.latencyMs;
+    }
+
+    private static List<CameraProfile> selectCandidates(CameraCapabilityCache.LegacyCapabilities capabilities) {
+        List<CameraSource.SizePair> sizes = new ArrayList<>();
+        for (CameraSource.SizePair pair : CameraSource.generateValidPreviewSizeList(capabilities)) {
+            int shortSide = Math.min(pair.preview.getWidth(), pair.preview.getHeight());
+            if (shortSide >= MIN_SHORT_SIDE && shortSide <= MAX_SHORT_SIDE) {
+                sizes.add(pair);
+            }
+        }
+        if (sizes.isEmpty()) {
+            sizes.addAll(CameraSource.generateValidPreviewSizeList(capabilities));
+        }
+        // Spread the picks from the smallest size to the largest.
+        Collections.sort(sizes, new Comparator<CameraSource.SizePair>() {
+            @Override
+            public int compare(CameraSource.SizePair a, CameraSource.SizePair b) {
+                return Long.signum(area(a.preview) - area(b.preview));
+            }
+        });
+        List<CameraSource.SizePair> picked = new ArrayList<>();
+        int count = Math.min(MAX_SIZES, sizes.size());
+        for (int i = 0; i < count; i++) {
+            picked.add(sizes.get(count == 1 ? 0 : Math.round(i * (sizes.size() - 1) / (float) (count - 1))));
+        }
+
+        List<int[]> fpsRanges = new ArrayList<>();
+        for (float fps : CANDIDATE_FPS) {
+            int[] range = CameraSource.selectPreviewFpsRange(capabilities.previewFpsRanges, fps);
+            if (range != null && !containsRange(fpsRanges, range)) {
+                fpsRanges.add(range);
+            }
+        }
+
+        List<CameraProfile> candidates = new ArrayList<>();
+        for (CameraSource.SizePair pair : picked) {
+            for (int[] range : fpsRanges) {
+                candidates.add(new CameraProfile(pair.preview, pair.picture,
+                        range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                        range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]));
+            }
+        }
+        return candidates;
+    }
+
+    private static long area(Size size) {
+        return (long) size.getWidth() * size.getHeight();
+    }
+
+    private static boolean containsRange(List<int[]> ranges, int[] range) {
+        for (int[] r : ranges) {
+            if (r[0] == range[0] && r[1] == range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
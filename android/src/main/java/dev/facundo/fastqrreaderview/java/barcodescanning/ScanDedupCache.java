@@ -0,0 +1,90 @@
+package dev.facundo.fastqrreaderview.java.barcodescanning;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers recently reported codes so continuous scanning reports each one once while it stays in
+ * view, instead of on every frame.
+ *
+ * <p>A code counts as new again once it hasn't been seen for the time-to-live. Entries are kept in
+ * least-recently-seen order, which makes both expiry and the size bound cheap: expired entries and
+ * any beyond {@code capacity} are always at the head.
+ */
+public class ScanDedupCache {
+
+    private final int capacity;
+    private final long ttlMs;
+    private final LinkedHashMap<Key, Long> lastSeen;
+
+    /**
+     * @param capacity most codes to remember at once; the least recently seen are forgotten first
+     * @param ttlMs    how long a code must be out of view before it is reported again
+     */
+    public ScanDedupCache(final int capacity, long ttlMs) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.ttlMs = ttlMs;
+        this.lastSeen = new LinkedHashMap<Key, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+                return size() > ScanDedupCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Records a sighting of the code and returns whether it should be reported, i.e. it was not seen
+     * within the time-to-live.
+     */
+    public synchronized boolean isNew(int format, byte[] rawBytes, long nowMs) {
+        evictExpired(nowMs);
+        Key key = new Key(format, rawBytes);
+        Long previous = lastSeen.put(key, nowMs);
+        return previous == null;
+    }
+
+    public synchronized void clear() {
+        lastSeen.clear();
+    }
+
+    private void evictExpired(long nowMs) {
+        Iterator<Long> iterator = lastSeen.values().iterator();
+        while (iterator.hasNext()) {
+            if (nowMs - iterator.next() < ttlMs) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    private static final class Key {
+        private final int format;
+        private final byte[] rawBytes;
+        private final int hash;
+
+        Key(int format, byte[] rawBytes) {
+            this.format = format;
+            this.rawBytes = rawBytes;
+            this.hash = 31 * format + Arrays.hashCode(rawBytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return format == other.format && Arrays.equals(rawBytes, other.rawBytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package dev.facundo.fastqrreaderview.java.barcodescanning;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.barcode.Barcode;
+import com.google.mlkit.vision.barcode.BarcodeScanner;
+import com.google.mlkit.vision.common.InputImage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Scans codes in a still image, such as a photo picked from the gallery, without ever decoding the
+ * whole image at full resolution.
+ *
+ * <p>The image is first decoded with {@code inSampleSize} so its longest side is at most {@link
+ * #MAX_DECODE_DIMENSION}, which is enough for codes that cover a fair part of the picture. If that
+ * finds nothing and the image was downsampled, it is scanned again at full resolution one tile at
+ * a time through {@link BitmapRegionDecoder}, decoding every tile into the same bitmap. Either way
+ * at most one bitmap of {@link #MAX_DECODE_DIMENSION} or {@link #TILE_SIZE} squared is held, no
+ * matter how large the image is.
+ *
+ * <p>Results are encoded with {@link BarcodeResultEncoder}, with coordinates in pixels of the image
+ * as stored. EXIF orientation is not applied. Scanning blocks on ML Kit, so it must not run on the
+ * main thread.
+ */
+public class StillImageScanner {
+
+    private static final String TAG = "StillImageScanner";
+
+    // Longest side of the downsampled pass; a 2048 x 1536 RGB_565 bitmap is 6 MB.
+    private static final int MAX_DECODE_DIMENSION = 2048;
+    private static final int TILE_SIZE = 2048;
+    // Codes narrower than this that straddle a tile edge are still whole in the neighbouring tile.
+    private static final int TILE_OVERLAP = 256;
+
+    private final BarcodeScanner scanner;
+
+    // Codes found in the current image, to drop the copies read again in overlapping tiles. Boxes
+    // are in image pixels, or null when ML Kit gave none.
+    private final ArrayList<Integer> foundFormats = new ArrayList<>();
+    private final ArrayList<byte[]> foundValues = new ArrayList<>();
+    private final ArrayList<Rect> foundBoxes = new ArrayList<>();
+
+    /**
+     * @param formats ML Kit format constants to look for, all formats if empty
+     */
+    public StillImageScanner(List<Integer> formats) {
+        scanner = BarcodeScanningProcessor.createScanner(formats);
+    }
+
+    /** Scans the image file at {@code path}. */
+    public List<byte[]> scanFile(final String path)
+            throws IOException, ExecutionException, InterruptedException {
+        return scan(new Source() {
+            @Override
+            Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeFile(path, options);
+            }
+
+            @Override
+            BitmapRegionDecoder newRegionDecoder() throws IOException {
+                return BitmapRegionDecoder.newInstance(path, false);
+            }
+        });
+    }
+
+    /** Scans an image held in memory in any format {@link BitmapFactory} understands. */
+    public List<byte[]> scanBytes(final byte[] data)
+            throws IOException, ExecutionException, InterruptedException {
+        return scan(new Source() {
+            @Override
+            Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            }
+
+            @Override
+            BitmapRegionDecoder newRegionDecoder() throws IOException {
+                return BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+            }
+        });
+    }
+
+    public void close() {
+        try {
+            scanner.close();
+        } catch (Exception e) {
+            Log.e(TAG, "Exception thrown while trying to close Barcode Detector: " + e);
+        }
+    }
+
+    private abstract static class Source {
+        abstract Bitmap decode(BitmapFactory.Options options);
+
+        abstract BitmapRegionDecoder newRegionDecoder() throws IOException;
+    }
+
+    private synchronized List<byte[]> scan(Source source)
+            throws IOException, ExecutionException, InterruptedException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        source.decode(bounds);
+        int width = bounds.outWidth;
+        int height = bounds.outHeight;
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Unsupported image format");
+        }
+
+        foundFormats.clear();
+        foundValues.clear();
+        foundBoxes.clear();
+        List<byte[]> results = new ArrayList<>();
+
+        int sampleSize = sampleSizeFor(Math.max(width, height), MAX_DECODE_DIMENSION);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap = source.decode(options);
+        if (bitmap == null) {
+            throw new IOException("Could not decode image");
+        }
+        try {
+            detect(bitmap, sampleSize, 0, 0, results);
+        } finally {
+            bitmap.recycle();
+        }
+
+        if (results.isEmpty() && sampleSize > 1) {
+            // Nothing survived downsampling; small codes may still be readable at full resolution.
+            scanTiles(source, width, height, results);
+        }
+        return results;
+    }
+
+    private void scanTiles(Source source, int width, int height, List<byte[]> results)
+            throws IOException, ExecutionException, InterruptedException {
+        BitmapRegionDecoder decoder = source.newRegionDecoder();
+        int tileWidth = Math.min(TILE_SIZE, width);
+        int tileHeight = Math.min(TILE_SIZE, height);
+        int[] xs = tileOrigins(width, tileWidth);
+        int[] ys = tileOrigins(height, tileHeight);
+
+        // Every tile has the same size, so each one is decoded into the previous tile's bitmap.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inMutable = true;
+        Rect region = new Rect();
+        Bitmap tile = null;
+        try {
+            for (int y : ys) {
+                for (int x : xs) {
+                    region.set(x, y, x + tileWidth, y + tileHeight);
+                    options.inBitmap = tile;
+                    tile = decoder.decodeRegion(region, options);
+                    if (tile == null) {
+                        throw new IOException("Could not decode image region " + region);
+                    }
+                    detect(tile, 1, x, y, results);
+                }
+            }
+        } finally {
+            if (tile != null) {
+                tile.recycle();
+            }
+            decoder.recycle();
+        }
+    }
+
+    private void detect(Bitmap bitmap, int scale, int offsetX, int offsetY, List<byte[]> results)
+            throws ExecutionException, InterruptedException {
+        List<Barcode> barcodes = Tasks.await(scanner.process(InputImage.fromBitmap(bitmap, 0)));
+        for (int i = 0; i < barcodes.size(); i++) {
+            Barcode barcode = barcodes.get(i);
+            int left = 0;
+            int top = 0;
+            int right = 0;
+            int bottom = 0;
+            Rect box = barcode.getBoundingBox();
+            if (box != null) {
+                left = box.left * scale + offsetX;
+                top = box.top * scale + offsetY;
+                right = box.right * scale + offsetX;
+                bottom = box.bottom * scale + offsetY;
+            }
+            if (!markFound(barcode.getFormat(), BarcodeScanningProcessor.valueBytes(barcode),
+                    box != null ? new Rect(left, top, right, bottom) : null)) {
+                continue;
+            }
+            int[] corners = null;
+            Point[] points = barcode.getCornerPoints();
+            if (points != null) {
+                corners = new int[points.length * 2];
+                for (int j = 0; j < points.length; j++) {
+                    corners[2 * j] = points[j].x * scale + offsetX;
+                    corners[2 * j + 1] = points[j].y * scale + offsetY;
+                }
+            }
+            results.add(BarcodeResultEncoder.encode(
+                    barcode.getFormat(), barcode.getValueType(), 0,
+                    left, top, right, bottom,
+                    corners, barcode.getRawBytes(), barcode.getRawValue()));
+        }
+    }
+
+    /**
+     * Returns false if the code was already found in this image: same format and value, in a box
+     * overlapping the earlier one. Identical labels elsewhere in the image count as new codes. A
+     * read without a box can't be told apart from any other with the same value.
+     */
+    private boolean markFound(int format, byte[] value, @Nullable Rect box) {
+        for (int i = 0; i < foundFormats.size(); i++) {
+            Rect found = foundBoxes.get(i);
+            if (foundFormats.get(i) == format && Arrays.equals(foundValues.get(i), value)
+                    && (box == null || found == null || Rect.intersects(found, box))) {
+                return false;
+            }
+        }
+        foundFormats.add(format);
+        foundValues.add(value);
+        foundBoxes.add(box);
+        return true;
+    }
+
+    /** Returns the largest power of two that brings {@code size} down to at most {@code max}. */
+    static int sampleSizeFor(int size, int max) {
+        int sampleSize = 1;
+        while (size / sampleSize > max) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Returns where tiles of {@code tile} pixels start along an edge of {@code size} pixels so that
+     * neighbours overlap by at least {@link #TILE_OVERLAP}. The last tile is pulled back to end
+     * exactly at the edge, so all tiles have the same size.
+     */
+    static int[] tileOrigins(int size, int tile) {
+        if (tile >= size) {
+            return new int[]{0};
+        }
+        int step = tile - TILE_OVERLAP;
+        int count = (size - tile + step - 1) / step + 1;
+        int[] origins = new int[count];
+        for (int i = 0; i < count - 1; i++) {
+            origins[i] = i * step;
+        }
+        origins[count - 1] = size - tile;
+        return origins;
+    }
+}
@@ -18,6 +18,7 @@ package dev.facundo.fastqrreaderview.preference;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Build;
 import android.os.Build.VERSION_CODES;
 import android.preference.PreferenceManager;
 import androidx.annotation.Nullable;
@@ -26,11 +27,10 @@ import androidx.annotation.StringRes;
 import androidx.camera.core.CameraSelector;
 import com.google.common.base.Preconditions;
 
-import com.google.android.gms.common.images.Size;
 import com.google.mlkit.common.model.LocalModel;
 
 import dev.facundo.fastqrreaderview.R;
-import dev.facundo.fastqrreaderview.common.CameraSource;
+import dev.facundo.fastqrreaderview.common.CameraProfile;
 
 /** Utility class to retrieve shared preferences. */
 public class PreferenceUtils {
@@ -44,29 +44,30 @@ public class PreferenceUtils {
         .apply();
   }
 
+  /**
+   * Returns the profile calibration picked for the given legacy camera on this device model, or
+   * null if it was never calibrated.
+   */
   @Nullable
-  public static CameraSource.SizePair getCameraPreviewSizePair(Context context, int cameraId) {
-    Preconditions.checkArgument(
-        cameraId == CameraSource.CAMERA_FACING_BACK
-            || cameraId == CameraSource.CAMERA_FACING_FRONT);
-    String previewSizePrefKey;
-    String pictureSizePrefKey;
-    if (cameraId == CameraSource.CAMERA_FACING_BACK) {
-      previewSizePrefKey = context.getString(R.string.pref_key_rear_camera_preview_size);
-      pictureSizePrefKey = context.getString(R.string.pref_key_rear_camera_picture_size);
-    } else {
-      previewSizePrefKey = context.getString(R.string.pref_key_front_camera_preview_size);
-      pictureSizePrefKey = context.getString(R.string.pref_key_front_camera_picture_size);
-    }
+  public static CameraProfile getCalibratedProfile(Context context, int cameraId) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    return CameraProfile.parse(
+        sharedPreferences.getString(getCalibratedProfileKey(context, cameraId), null));
+  }
 
-    try {
-      SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
-      return new CameraSource.SizePair(
-          Size.parseSize(sharedPreferences.getString(previewSizePrefKey, null)),
-          Size.parseSize(sharedPreferences.getString(pictureSizePrefKey, null)));
-    } catch (Exception e) {
-      return null;
-    }
+  public static void saveCalibratedProfile(Context context, int cameraId, CameraProfile profile) {
+    PreferenceManager.getDefaultSharedPreferences(context)
+        .edit()
+        .putString(getCalibratedProfileKey(context, cameraId), profile.encode())
+        .apply();
+  }
+
+  /**
+   * Profiles are kept per device model, so one restored from a backup of another phone is never
+   * used.
+   */
+  private static String getCalibratedProfileKey(Context context, int cameraId) {
+    return context.getString(R.string.pref_key_calibrated_profile) + ":" + Build.MODEL + ":" + cameraId;
   }
 
   @RequiresApi(VERSION_CODES.LOLLIPOP)
@@ -87,7 +87,8 @@ AVCaptureMetadataOutputObjectsDelegate>
     AVCaptureSessionPreset preset;
     if ([resolutionPreset isEqualToString:@"high"]) {
         preset = AVCaptureSessionPresetHigh;
-    } else if ([resolutionPreset isEqualToString:@"medium"]) {
+    } else if ([resolutionPreset isEqualToString:@"medium"] ||
+               [resolutionPreset isEqualToString:@"scanOptimized"]) {
         preset = AVCaptureSessionPresetMedium;
     } else {
         NSAssert([resolutionPreset isEqualToString:@"low"], @"Unknown resolution preset %@",
@@ -433,6 +434,10 @@ didOutputSampleBuffer:(CMSampleBufferRef)sampleBuffer
             [_camera stopScanning:result];
         } else if ([@"toggleFlash" isEqualToString:call.method]) {
             [_camera toggleFlash:result];
+        } else if ([@"updateFormats" isEqualToString:call.method]) {
+            // Formats can't be changed here without reopening the camera; keep the ones given
+            // to initialize rather than failing the call.
+            result(nil);
         } else {
             result(FlutterMethodNotImplemented);
         }
@@ -1,13 +1,30 @@
 import 'dart:async';
+import 'dart:convert';
+import 'dart:typed_data';
 
 import 'package:flutter/services.dart';
 import 'package:flutter/widgets.dart';
 
 const MethodChannel _channel = const MethodChannel('fast_qr_reader_view');
 
+// Whether 'init' was sent by this isolate. Native readers still open when it arrives were left
+// behind by a hot restart and get closed.
+bool _pluginInitialized = false;
+
 enum CameraLensDirection { front, back, external }
 
-enum ResolutionPreset { low, medium, high }
+/// Size of the stream frames are analyzed at.
+///
+/// [scanOptimized] picks the smallest stream that still resolves the smallest module size given to
+/// [QRReaderController.minModuleSize], trading unneeded pixels for frame rate. On iOS it behaves
+/// like [medium].
+enum ResolutionPreset { low, medium, high, scanOptimized }
+
+/// Camera API used to feed frames to the detector on Android. Ignored on iOS.
+///
+/// [auto] uses camera2 unless the device only offers the legacy camera2 shim, in which case the
+/// deprecated camera API is used.
+enum CaptureBackend { auto, camera2, legacy }
 
 enum CodeFormat { codabar, code39, code93, code128, ean8, ean13, itf, upca, upce, aztec, datamatrix, pdf417, qr }
 
@@ -36,6 +53,20 @@ String serializeResolutionPreset(ResolutionPreset resolutionPreset) {
       return 'medium';
     case ResolutionPreset.low:
       return 'low';
+    case ResolutionPreset.scanOptimized:
+      return 'scanOptimized';
+  }
+}
+
+/// Returns the capture backend as a String.
+String serializeCaptureBackend(CaptureBackend captureBackend) {
+  switch (captureBackend) {
+    case CaptureBackend.auto:
+      return 'auto';
+    case CaptureBackend.camera2:
+      return 'camera2';
+    case CaptureBackend.legacy:
+      return 'legacy';
   }
 }
 
@@ -69,7 +100,10 @@ CameraLensDirection _parseCameraLensDirection(String? string) {
 /// May throw a [QRReaderException].
 Future<List<CameraDescription>> availableCameras() async {
   try {
-    await _channel.invokeMethod('init');
+    if (!_pluginInitialized) {
+      _pluginInitialized = true;
+      await _channel.invokeMethod('init');
+    }
     final List<dynamic> cameras = await (_channel.invokeMethod('availableCameras'));
     return cameras.map((dynamic camera) {
       return new CameraDescription(
@@ -83,6 +117,183 @@ Future<List<CameraDescription>> availableCameras() async {
   }
 }
 
+/// Scans a still image, given either as a file [path] or as encoded image [bytes].
+///
+/// The image is never decoded at full size at once: it is scanned downsampled first and, if that
+/// finds nothing, at full resolution tile by tile, so large photos don't run the app out of memory.
+/// Only [formats] are looked for, all formats if empty. Coordinates in the results are pixels of
+/// the image as stored, before any EXIF rotation. Android only.
+///
+/// Throws a [QRReaderException] if the image can't be decoded.
+Future<List<ScanResult>> scanImage(
+    {String? path, Uint8List? bytes, List<CodeFormat> formats = const <CodeFormat>[]}) async {
+  if ((path == null) == (bytes == null)) {
+    throw new ArgumentError('Exactly one of path and bytes must be given');
+  }
+  try {
+    final List<dynamic> results = await (_channel.invokeMethod(
+      'scanImage',
+      <String, dynamic>{
+        'path': path,
+        'bytes': bytes,
+        'codeFormats': serializeCodeFormatsList(formats),
+      },
+    ));
+    return results.map((dynamic result) => ScanResult.decode(result as Uint8List)).toList();
+  } on PlatformException catch (e) {
+    throw new QRReaderException(e.code, e.message);
+  }
+}
+
+/// Outcome of scanning one file of a [scanFiles] batch.
+class ScanFileResult {
+  /// Position of the file in the list given to [scanFiles].
+  final int index;
+
+  final String path;
+
+  /// Codes found in the file. Empty if the file could not be scanned.
+  final List<ScanResult> results;
+
+  /// Why the file could not be scanned, or null.
+  final String? error;
+
+  /// Number of files of the batch finished so far, this one included.
+  final int completed;
+
+  /// Number of files in the batch.
+  final int total;
+
+  ScanFileResult(this.index, this.path, this.results, this.error, this.completed, this.total);
+
+  static ScanFileResult _fromMap(Map<dynamic, dynamic> map) {
+    final List<dynamic>? results = map['results'];
+    return new ScanFileResult(
+      map['index'],
+      map['path'],
+      results != null
+          ? results.map((dynamic result) => ScanResult.decode(result as Uint8List)).toList()
+          : <ScanResult>[],
+      map['error'],
+      map['completed'],
+      map['total'],
+    );
+  }
+}
+
+// One native subscription shared by all batches; cancelling a batch must not cut off the others.
+final Stream<dynamic> _scanFilesEvents =
+    const EventChannel('fast_qr_reader_view/scanFilesEvents').receiveBroadcastStream();
+int _nextScanFilesBatch = 0;
+
+/// Scans the image files at [paths] in parallel, one worker per CPU core.
+///
+/// Emits one [ScanFileResult] per file as soon as it is done, in completion order, and closes once
+/// every file has been scanned. Cancelling the subscription stops the files not started yet. Files
+/// are decoded like in [scanImage]. Android only.
+Stream<ScanFileResult> scanFiles(List<String> paths,
+    {List<CodeFormat> formats = const <CodeFormat>[]}) {
+  final int batchId = _nextScanFilesBatch++;
+  StreamSubscription<dynamic>? events;
+  late StreamController<ScanFileResult> controller;
+  controller = new StreamController<ScanFileResult>(
+    onListen: () {
+      events = _scanFilesEvents.listen((dynamic event) {
+        final Map<dynamic, dynamic> map = event;
+        if (map['batchId'] != batchId) {
+          return;
+        }
+        if (map['eventType'] == 'file') {
+          controller.add(ScanFileResult._fromMap(map));
+        } else if (map['eventType'] == 'done') {
+          events?.cancel();
+          controller.close();
+        }
+      });
+      _channel.invokeMethod(
+        'scanFiles',
+        <String, dynamic>{
+          'batchId': batchId,
+          'paths': paths,
+          'codeFormats': serializeCodeFormatsList(formats),
+        },
+      ).catchError((Object e) {
+        events?.cancel();
+        controller.addError(e is PlatformException ? new QRReaderException(e.code, e.message) : e);
+        controller.close();
+      });
+    },
+    onCancel: () {
+      events?.cancel();
+      if (!controller.isClosed) {
+        _channel.invokeMethod('cancelScanFiles', <String, dynamic>{'batchId': batchId});
+      }
+    },
+  );
+  return controller.stream;
+}
+
+/// Preview profile picked by [calibrate], with how it did.
+class CalibrationResult {
+  final int previewWidth;
+  final int previewHeight;
+  final double minFps;
+  final double maxFps;
+
+  /// Frames the detector processed per second.
+  final double frameRate;
+
+  /// Frames in which a code was read, per second.
+  final double decodeRate;
+
+  /// Median time from the camera delivering a frame until detection completed.
+  final double latencyMs;
+
+  CalibrationResult(this.previewWidth, this.previewHeight, this.minFps, this.maxFps, this.frameRate,
+      this.decodeRate, this.latencyMs);
+
+  static CalibrationResult _fromMap(Map<dynamic, dynamic> map) {
+    return new CalibrationResult(
+      map['previewWidth'],
+      map['previewHeight'],
+      map['minFps'],
+      map['maxFps'],
+      map['frameRate'],
+      map['decodeRate'],
+      map['latencyMs'],
+    );
+  }
+}
+
+/// Finds the preview size and frame rate that read codes best on this device, and uses them for
+/// [camera] from then on.
+///
+/// Runs the camera and the detector with a few candidate profiles for about 20 seconds while the
+/// camera points at a typical code, and keeps the one that reads it in the most frames, preferring
+/// lower latency between profiles that read about as well. The result is saved for the device
+/// model and applies to the legacy capture backend, which then ignores the resolution preset. Only
+/// [formats] are looked for, all formats if empty. Dispose every [QRReaderController] first;
+/// [QRReaderController.initialize] fails with `cameraInUse` until calibration is done. Android
+/// only.
+///
+/// Throws a [QRReaderException] with code `noCodeInView` if no code was read, in which case
+/// nothing is saved.
+Future<CalibrationResult> calibrate(CameraDescription camera,
+    {List<CodeFormat> formats = const <CodeFormat>[]}) async {
+  try {
+    final Map<dynamic, dynamic> result = await (_channel.invokeMethod(
+      'calibrate',
+      <String, dynamic>{
+        'cameraName': camera.name,
+        'codeFormats': serializeCodeFormatsList(formats),
+      },
+    ));
+    return CalibrationResult._fromMap(result);
+  } on PlatformException catch (e) {
+    throw new QRReaderException(e.code, e.message);
+  }
+}
+
 /// Checks the current status of the Camera Permission
 ///
 /// returns: [Future<PermissionStatus>] with the status from the check
@@ -193,6 +404,134 @@ class CameraDescription {
   }
 }
 
+/// A scanned code with its geometry, as delivered to [QRReaderController.onResult]. Android only.
+class ScanResult {
+  /// The code's format, or null for a format without a [CodeFormat] value.
+  final CodeFormat? format;
+
+  /// ML Kit's `Barcode.FORMAT_*` constant.
+  final int rawFormat;
+
+  /// ML Kit's `Barcode.TYPE_*` constant, e.g. URL or WiFi.
+  final int valueType;
+
+  /// Monotonic timestamp, in nanoseconds, of the frame the code was read from. 0 if unknown.
+  final int frameTimestampNanos;
+
+  /// Bounding box in upright preview pixels.
+  final Rect boundingBox;
+
+  /// Corner points in upright preview pixels, clockwise from top-left.
+  final List<Offset> corners;
+
+  /// The encoded payload, if the format has one.
+  final Uint8List? rawBytes;
+
+  /// The decoded value.
+  final String? rawValue;
+
+  ScanResult(this.rawFormat, this.valueType, this.frameTimestampNanos, this.boundingBox, this.corners,
+      this.rawBytes, this.rawValue)
+      : format = _mlKitFormats[rawFormat];
+
+  static const Map<int, CodeFormat> _mlKitFormats = {
+    1: CodeFormat.code128,
+    2: CodeFormat.code39,
+    4: CodeFormat.code93,
+    8: CodeFormat.codabar,
+    16: CodeFormat.datamatrix,
+    32: CodeFormat.ean13,
+    64: CodeFormat.ean8,
+    128: CodeFormat.itf,
+    256: CodeFormat.qr,
+    512: CodeFormat.upca,
+    1024: CodeFormat.upce,
+    2048: CodeFormat.pdf417,
+    4096: CodeFormat.aztec,
+  };
+
+  /// Decodes the payload written by the Android plugin's `BarcodeResultEncoder`.
+  static ScanResult decode(Uint8List bytes) {
+    final ByteData data = ByteData.sublistView(bytes);
+    int offset = 0;
+    final int version = data.getUint8(offset);
+    if (version != 1) {
+      throw new QRReaderException('unsupportedResult', 'Unknown result version $version');
+    }
+    offset += 1;
+    final int format = data.getInt32(offset);
+    final int valueType = data.getInt32(offset + 4);
+    final int timestamp = data.getInt64(offset + 8);
+    offset += 16;
+    final Rect box = Rect.fromLTRB(
+      data.getInt32(offset).toDouble(),
+      data.getInt32(offset + 4).toDouble(),
+      data.getInt32(offset + 8).toDouble(),
+      data.getInt32(offset + 12).toDouble(),
+    );
+    offset += 16;
+    final int cornerCount = data.getUint8(offset);
+    offset += 1;
+    final List<Offset> corners = <Offset>[];
+    for (int i = 0; i < cornerCount; i++) {
+      corners.add(new Offset(data.getInt32(offset).toDouble(), data.getInt32(offset + 4).toDouble()));
+      offset += 8;
+    }
+    Uint8List? rawBytes;
+    final int rawLength = data.getInt32(offset);
+    offset += 4;
+    if (rawLength >= 0) {
+      rawBytes = Uint8List.sublistView(bytes, offset, offset + rawLength);
+      offset += rawLength;
+    }
+    String? rawValue;
+    final int valueLength = data.getInt32(offset);
+    offset += 4;
+    if (valueLength >= 0) {
+      rawValue = utf8.decode(Uint8List.sublistView(bytes, offset, offset + valueLength));
+    }
+    return new ScanResult(format, valueType, timestamp, box, corners, rawBytes, rawValue);
+  }
+
+  @override
+  String toString() => '$runtimeType($format, $rawValue, $boundingBox)';
+}
+
+enum TrackEventType { appeared, moved, disappeared }
+
+/// A change to a code followed across frames, see [QRReaderController.onTrack]. Android only.
+class TrackEvent {
+  final TrackEventType type;
+
+  /// Stays the same for as long as the code remains in view.
+  final int trackId;
+
+  /// The code with its current position. Null for [TrackEventType.disappeared].
+  final ScanResult? result;
+
+  TrackEvent(this.type, this.trackId, this.result);
+
+  static TrackEvent _fromMap(Map<dynamic, dynamic> map) {
+    final TrackEventType type;
+    switch (map['type']) {
+      case 'appeared':
+        type = TrackEventType.appeared;
+        break;
+      case 'moved':
+        type = TrackEventType.moved;
+        break;
+      default:
+        type = TrackEventType.disappeared;
+        break;
+    }
+    final Uint8List? result = map['result'];
+    return new TrackEvent(type, map['trackId'], result != null ? ScanResult.decode(result) : null);
+  }
+
+  @override
+  String toString() => '$runtimeType($type, $trackId, $result)';
+}
+
 /// This is thrown when the plugin reports an error.
 class QRReaderException implements Exception {
   String code;
@@ -287,14 +626,134 @@ class QRReaderController extends ValueNotifier<QRReaderValue> {
   final ResolutionPreset resolutionPreset;
   final Function onCodeRead;
   final List<CodeFormat> codeFormats;
+  final CaptureBackend captureBackend;
+
+  /// Size of the smallest code module that must be resolved, as a fraction of the frame's shorter
+  /// side. Only used with [ResolutionPreset.scanOptimized]; defaults to 1/200 when null.
+  final double? minModuleSize;
+
+  /// Number of frames the detector may work on at the same time, from 1 to 8. Android only.
+  ///
+  /// Higher values use more cores on devices where a single detection can't keep up with the
+  /// camera. Results are still reported in frame order.
+  final int maxInFlight;
+
+  /// Whether to lower the camera frame rate to what the detector sustains. Android only.
+  ///
+  /// Frames the detector could not get to would only be dropped, so capturing them wastes power
+  /// and adds latency. Enabled by default.
+  final bool adaptiveFrameRate;
+
+  /// Number of preview buffers shared between the camera and the detector. Android only, and only
+  /// used by the legacy capture backend.
+  ///
+  /// When null, enough buffers are allocated for [maxInFlight] frames plus what the camera needs to
+  /// keep streaming. Devices with uneven detection times may benefit from a few more.
+  final int? frameBufferCount;
+
+  /// Called about once a second with per-stage latency of the scan pipeline. Android only.
+  ///
+  /// Receives the same map as [getMetrics].
+  final void Function(Map<dynamic, dynamic> metrics)? onMetrics;
+
+  /// Called with the full [ScanResult] of every code read, before `onCodeRead`. Android only.
+  ///
+  /// Setting it switches the plugin to a compact binary result message that also carries the
+  /// format and geometry.
+  final void Function(ScanResult result)? onResult;
+
+  /// Delivers results in batches over the camera's event stream instead of one message per code.
+  /// Android only.
+  ///
+  /// [Duration.zero] sends all codes read from one frame together; a longer window also collects
+  /// codes from the frames that follow, when scanning continuously. When null, every code is sent
+  /// on its own.
+  final Duration? batchWindow;
+
+  /// Called with each batch when [batchWindow] is set. Without it, [onResult] and `onCodeRead` are
+  /// called for every code in the batch.
+  final void Function(List<ScanResult> results)? onResults;
+
+  /// Follows codes across frames while scanning and reports when one appears, moves or disappears,
+  /// one list per frame that changed anything. Android only.
+  ///
+  /// Suited to overlays: each code keeps its [TrackEvent.trackId] while in view, and nothing is
+  /// sent for frames where nothing moved.
+  final void Function(List<TrackEvent> events)? onTrack;
+
+  /// Frames a linear code (EAN, UPC, Code 39 and the like) must be read the same way in, out of the
+  /// last [consensusWindow] frames, before it is reported. Android only.
+  ///
+  /// Guards against the occasional single-frame misread of an angled label, at the cost of a few
+  /// frames of latency. When null, every read is reported right away. 2D codes are never held back.
+  /// At most 64.
+  final int? consensusVotes;
+
+  /// Number of recent frames [consensusVotes] are counted over, at most 64. A window shorter than
+  /// [consensusVotes] is widened to match it.
+  final int consensusWindow;
+
+  /// Whether to switch the torch on when the scene gets too dark to read codes, and off again once
+  /// it is bright. Android only.
+  ///
+  /// While the torch is on, it goes off for about a third of a second every ten seconds to check
+  /// the light without it. Calling [toggleFlash] or [setTorch] hands the torch back to the user for the rest of this
+  /// controller's life.
+  final bool autoTorch;
+
+  /// Whether to point autofocus and auto-exposure at the codes in view, and at the scan window
+  /// while there are none. Android only.
+  ///
+  /// Continuous autofocus otherwise tends to settle on whatever fills the frame, such as the shelf
+  /// behind a small label.
+  final bool guidedFocus;
+
+  /// Fraction of the frame's shorter side, above 0 and at most 1, that codes should span. While
+  /// the code in view is smaller than that, the camera zooms in step by step, and it zooms back
+  /// out once no code has been seen for a couple of seconds. When null, zoom is left alone. Android
+  /// only.
+  ///
+  /// Meant for distant codes such as labels on a top shelf; around 0.3 works for most labels.
+  final double? autoZoomTarget;
+
+  /// Highest zoom ratio [autoZoomTarget] may use. The camera's own limit applies as well.
+  final double maxAutoZoom;
+
+  /// Whether leaving the app only closes the camera and keeps the barcode detector loaded, so
+  /// scanning picks up again right after coming back instead of a second later. Android only.
+  ///
+  /// The detector keeps its memory while the app is in the background.
+  final bool warmResume;
+
+  // Initialized controllers by texture id, to route results from the shared method channel.
+  static final Map<int, QRReaderController> _controllers = <int, QRReaderController>{};
 
   int? _textureId;
   bool _isDisposed = false;
   StreamSubscription<dynamic>? _eventSubscription;
   Completer<Null>? _creatingCompleter;
+  bool _continuous = false;
 
-  QRReaderController(this.description, this.resolutionPreset, this.codeFormats, this.onCodeRead)
-      : super(const QRReaderValue.uninitialized());
+  QRReaderController(this.description, this.resolutionPreset, this.codeFormats, this.onCodeRead,
+      {this.captureBackend = CaptureBackend.auto, this.minModuleSize,
+      this.maxInFlight = 1,
+      this.adaptiveFrameRate = true,
+      this.frameBufferCount,
+      this.onMetrics,
+      this.onResult,
+      this.batchWindow,
+      this.onResults,
+      this.onTrack,
+      this.consensusVotes,
+      this.consensusWindow = 5,
+      this.autoTorch = false,
+      this.guidedFocus = true,
+      this.autoZoomTarget,
+      this.maxAutoZoom = 4.0,
+      this.warmResume = false})
+      : assert(consensusVotes == null || (consensusVotes >= 1 && consensusVotes <= 64)),
+        assert(consensusWindow >= 1 && consensusWindow <= 64),
+        super(const QRReaderValue.uninitialized());
 
   /// Initializes the camera on the device.
   ///
@@ -304,7 +763,7 @@ class QRReaderController extends ValueNotifier<QRReaderValue> {
       return new Future<Null>.value(null);
     }
     try {
-      _channel.setMethodCallHandler(_handleMethod);
+      _channel.setMethodCallHandler(_dispatchMethod);
       _creatingCompleter = new Completer<Null>();
       final Map<dynamic, dynamic> reply = await (_channel.invokeMethod(
         'initialize',
@@ -312,9 +771,25 @@ class QRReaderController extends ValueNotifier<QRReaderValue> {
           'cameraName': description.name,
           'resolutionPreset': serializeResolutionPreset(resolutionPreset),
           'codeFormats': serializeCodeFormatsList(codeFormats),
+          'captureBackend': serializeCaptureBackend(captureBackend),
+          'minModuleSize': minModuleSize,
+          'maxInFlight': maxInFlight,
+          'adaptiveFrameRate': adaptiveFrameRate,
+          'frameBufferCount': frameBufferCount,
+          'binaryResults': onResult != null || batchWindow != null,
+          'batchWindowMs': batchWindow?.inMilliseconds,
+          'trackBarcodes': onTrack != null,
+          'consensusVotes': consensusVotes,
+          'consensusWindow': consensusWindow,
+          'autoTorch': autoTorch,
+          'guidedFocus': guidedFocus,
+          'autoZoomTarget': autoZoomTarget,
+          'maxAutoZoom': maxAutoZoom,
+          'warmResume': warmResume,
         },
       ));
       _textureId = reply['textureId'];
+      _controllers[_textureId!] = this;
       value = value.copyWith(
         isInitialized: true,
         previewSize: new Size(
@@ -347,6 +822,18 @@ class QRReaderController extends ValueNotifier<QRReaderValue> {
       case 'cameraClosing':
         value = value.copyWith(isScanning: false);
         break;
+      case 'metrics':
+        onMetrics?.call(map['metrics']);
+        break;
+      case 'tracks':
+        onTrack?.call((map['events'] as List<dynamic>)
+            .map((dynamic event) => TrackEvent._fromMap(event))
+            .toList());
+        break;
+      case 'results':
+        _deliverResults(
+            (map['results'] as List<dynamic>).map((dynamic result) => ScanResult.decode(result)).toList());
+        break;
     }
   }
 
@@ -362,10 +849,107 @@ class QRReaderController extends ValueNotifier<QRReaderValue> {
     }
   }
 
+  /// Switches the torch on or off without interrupting the preview. Android only.
+  Future<Null> setTorch(bool on) async {
+    try {
+      await _channel.invokeMethod(
+        'setTorch',
+        <String, dynamic>{'textureId': _textureId, 'on': on},
+      );
+    } on PlatformException catch (e) {
+      throw new QRReaderException(e.code, e.message);
+    }
+  }
+
+  /// Returns latency histograms for each stage of the scan pipeline. Android only.
+  ///
+  /// Keys are the stages: `queue` (camera callback to dequeue), `build` (building the detector
+  /// input), `wait` (waiting for a free detector slot), `detect`, `deliver` (in-order delivery) and
+  /// `total` (camera callback until the code is sent to Dart). Each maps to `count` and `mean`,
+  /// `p50`, `p90`, `p99` and `max` in milliseconds.
+  Future<Map<dynamic, dynamic>> getMetrics() async {
+    if (!value.isInitialized! || _isDisposed) {
+      throw new QRReaderException(
+        'Uninitialized QRReaderController',
+        'getMetrics was called on uninitialized QRReaderController',
+      );
+    }
+    try {
+      final Map<dynamic, dynamic>? metrics = await _channel.invokeMethod(
+        'getMetrics',
+        <String, dynamic>{'textureId': _textureId},
+      );
+      return metrics ?? <dynamic, dynamic>{};
+    } on PlatformException catch (e) {
+      throw new QRReaderException(e.code, e.message);
+    }
+  }
+
+  /// Restricts detection to [formats] without reopening the camera. Android only; on iOS the call
+  /// does nothing and the formats given to the constructor stay in effect.
+  ///
+  /// Fewer formats means less work per frame, so only pass the formats you expect to read.
+  Future<Null> updateFormats(List<CodeFormat> formats) async {
+    if (!value.isInitialized! || _isDisposed) {
+      throw new QRReaderException(
+        'Uninitialized QRReaderController',
+        'updateFormats was called on uninitialized QRReaderController',
+      );
+    }
+    try {
+      await _channel.invokeMethod(
+        'updateFormats',
+        <String, dynamic>{
+          'textureId': _textureId,
+          'codeFormats': serializeCodeFormatsList(formats),
+        },
+      );
+    } on PlatformException catch (e) {
+      throw new QRReaderException(e.code, e.message);
+    }
+  }
+
+  /// Restricts detection to [window], a rectangle in normalized preview coordinates where (0, 0)
+  /// is the top left and (1, 1) the bottom right corner. Pass null to scan the whole frame again.
+  /// Android only.
+  ///
+  /// Only the pixels under the window are handed to the detector, so a window matching the
+  /// on-screen reticle makes each frame cheaper to scan.
+  Future<Null> setScanWindow(Rect? window) async {
+    if (!value.isInitialized! || _isDisposed) {
+      throw new QRReaderException(
+        'Uninitialized QRReaderController',
+        'setScanWindow was called on uninitialized QRReaderController',
+      );
+    }
+    try {
+      await _channel.invokeMethod(
+        'setScanWindow',
+        <String, dynamic>{
+          'textureId': _textureId,
+          if (window != null) ...<String, dynamic>{
+            'left': window.left,
+            'top': window.top,
+            'right': window.right,
+            'bottom': window.bottom,
+          },
+        },
+      );
+    } on PlatformException catch (e) {
+      throw new QRReaderException(e.code, e.message);
+    }
+  }
+
   /// Start a QR scan.
   ///
+  /// By default scanning stops after the first code. With [continuous], scanning keeps running and
+  /// every code is passed to `onCodeRead` once, until [stopScanning] is called; a code is only
+  /// reported again after it has been out of view for [dedupWindow]. Continuous scanning is
+  /// Android only.
+  ///
   /// Throws a [QRReaderException] if the capture fails.
-  Future<Null> startScanning() async {
+  Future<Null> startScanning(
+      {bool continuous = false, Duration dedupWindow = const Duration(milliseconds: 1500)}) async {
     if (!value.isInitialized! || _isDisposed) {
       throw new QRReaderException(
         'Uninitialized QRReaderController',
@@ -380,9 +964,14 @@ class QRReaderController extends ValueNotifier<QRReaderValue> {
     }
     try {
       value = value.copyWith(isScanning: true);
+      _continuous = continuous;
       await _channel.invokeMethod(
         'startScanning',
-        <String, dynamic>{'textureId': _textureId},
+        <String, dynamic>{
+          'textureId': _textureId,
+          'continuous': continuous,
+          'dedupWindowMs': dedupWindow.inMilliseconds,
+        },
       );
     } on PlatformException catch (e) {
       throw new QRReaderException(e.code, e.message);
@@ -426,6 +1015,7 @@ class QRReaderController extends ValueNotifier<QRReaderValue> {
       return new Future<Null>.value(null);
     } else {
       return _creatingCompleter!.future.then((_) async {
+        _controllers.remove(_textureId);
         await _channel.invokeMethod(
           'dispose',
           <String, dynamic>{'textureId': _textureId},
@@ -435,13 +1025,56 @@ class QRReaderController extends ValueNotifier<QRReaderValue> {
     }
   }
 
-  Future<dynamic> _handleMethod(MethodCall call) async {
-    switch (call.method) {
+  void _deliverResults(List<ScanResult> results) {
+    if (!value.isScanning!) {
+      return;
+    }
+    if (onResults != null) {
+      onResults!(results);
+    } else {
+      for (ScanResult result in results) {
+        onResult?.call(result);
+        onCodeRead(result.rawValue);
+      }
+    }
+    if (!_continuous) {
+      value = value.copyWith(isScanning: false);
+    }
+  }
+
+  /// Hands a call from the platform to the controller it is for.
+  ///
+  /// Android names the controller by its `textureId`. iOS runs a single camera and sends the bare
+  /// code, which goes to every controller; only a scanning one acts on it.
+  static Future<dynamic> _dispatchMethod(MethodCall call) async {
+    final dynamic arguments = call.arguments;
+    if (arguments is Map) {
+      final QRReaderController? controller = _controllers[arguments['textureId']];
+      if (controller != null && !controller._isDisposed) {
+        controller._handleMethod(call.method, call.method == 'updateCode' ? arguments['code'] : arguments['result']);
+      }
+      return;
+    }
+    for (QRReaderController controller in _controllers.values.toList()) {
+      if (!controller._isDisposed) {
+        controller._handleMethod(call.method, arguments);
+      }
+    }
+  }
+
+  void _handleMethod(String method, dynamic payload) {
+    switch (method) {
       case "updateCode":
         if (value.isScanning!) {
-          onCodeRead(call.arguments);
-          value = value.copyWith(isScanning: false);
+          onCodeRead(payload);
+          if (!_continuous) {
+            value = value.copyWith(isScanning: false);
+          }
         }
+        break;
+      case "updateResult":
+        _deliverResults(<ScanResult>[ScanResult.decode(payload)]);
+        break;
     }
   }
 }